@@ -0,0 +1,229 @@
+package com.laszlosystems.libresample4j;
+
+/**
+ * Streaming resampler for a fixed rational ratio.
+ * <p>
+ * The ratio outRate / inRate is reduced to L / M. For each of the L output phases the taps of the same Kaiser windowed
+ * lowpass filter {@link Resampler} uses are computed once, so each output sample is a plain inner product over the
+ * most recent input samples. The input history is kept between calls, blocks of any size are resampled without
+ * discontinuities. No memory is allocated after construction. Not thread safe.
+ */
+public class PolyphaseResampler {
+	private final int inRate;
+	private final int outRate;
+	// Reduced ratio: L output samples for every M input samples
+	private final int up;
+	private final int down;
+	private final int taps;
+	// Taps of phase p at [p * taps, (p + 1) * taps), applied from the oldest to the newest input sample
+	private final float[] coefficients;
+	// Input history stored twice, so the last taps samples are contiguous at [position, position + taps)
+	private final float[] history;
+	private int position = 0;
+	// Input samples still needed before the next output sample can be computed
+	private int pending;
+	private int phase = 0;
+
+	/**
+	 * Constructs a PolyphaseResampler.
+	 *
+	 * @param highQuality
+	 *            true for the longer filter, like {@link Resampler#Resampler(boolean, double, double)}
+	 * @param inRate
+	 *            input sample rate [Hz]
+	 * @param outRate
+	 *            output sample rate [Hz]
+	 */
+	public PolyphaseResampler(boolean highQuality, int inRate, int outRate) {
+		if (inRate <= 0 || outRate <= 0) {
+			throw new IllegalArgumentException("Invalid sample rates: " + inRate + " -> " + outRate);
+		}
+		this.inRate = inRate;
+		this.outRate = outRate;
+		int gcd = gcd(inRate, outRate);
+		this.up = outRate / gcd;
+		this.down = inRate / gcd;
+
+		int nmult = highQuality ? 35 : 11;
+		int nwing = Resampler.Npc * (nmult - 1) / 2;
+		double rolloff = 0.90;
+		double beta = 6;
+		double[] imp = new double[nwing];
+		FilterKit.lrsLpFilter(imp, nwing, 0.5 * rolloff, beta, Resampler.Npc);
+
+		// Downsampling stretches the filter over more input samples and scales it to unity gain
+		double scale = Math.min(1.0, up / (double) down);
+		int width = (int) Math.ceil((nmult - 1) / 2.0 / scale);
+		this.taps = 2 * width;
+		this.coefficients = new float[up * taps];
+		for (int p = 0; p < up; p++) {
+			for (int k = 0; k < taps; k++) {
+				// Distance of the output sample from the input sample of tap k [input samples]
+				double distance = p / (double) up + width - 1 - k;
+				coefficients[p * taps + k] = (float) (scale * impulse(imp, Math.abs(distance) * scale));
+			}
+		}
+		this.history = new float[2 * taps];
+		this.pending = width + 1;
+	}
+
+	/**
+	 * Creates a resampler for the same rates sharing the filter of an existing one, with an empty input history.
+	 * Faster than creating one from scratch.
+	 */
+	public PolyphaseResampler(PolyphaseResampler other) {
+		this.inRate = other.inRate;
+		this.outRate = other.outRate;
+		this.up = other.up;
+		this.down = other.down;
+		this.taps = other.taps;
+		this.coefficients = other.coefficients;
+		this.history = new float[2 * taps];
+		this.pending = taps / 2 + 1;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	// Lowpass impulse response at time t [samples of the lower rate], interpolated from the table
+	private static double impulse(double[] imp, double t) {
+		double index = t * Resampler.Npc;
+		int i = (int) index;
+		if (i >= imp.length - 1) {
+			return 0;
+		}
+		double a = index - i;
+		return imp[i] + (imp[i + 1] - imp[i]) * a;
+	}
+
+	/**
+	 * Resamples a block of input. The output lags the input by half the filter length.
+	 *
+	 * @param in
+	 *            input samples
+	 * @param inOffset
+	 *            offset of the first input sample
+	 * @param inLength
+	 *            number of input samples
+	 * @param out
+	 *            output buffer with room for {@link #getMaxOutputLength(int)} samples from outOffset
+	 * @param outOffset
+	 *            offset of the first output sample
+	 * @return number of output samples written
+	 */
+	public int process(float[] in, int inOffset, int inLength, float[] out, int outOffset) {
+		float[] coefficients = this.coefficients;
+		float[] history = this.history;
+		int taps = this.taps;
+		int written = 0;
+		for (int i = inOffset; i < inOffset + inLength; i++) {
+			float sample = in[i];
+			history[position] = sample;
+			history[position + taps] = sample;
+			if (++position == taps) {
+				position = 0;
+			}
+			if (--pending > 0) {
+				continue;
+			}
+			// The newest sample completes the window of one or more output samples
+			while (pending <= 0) {
+				float v = 0;
+				int c = phase * taps;
+				for (int k = 0; k < taps; k++) {
+					v += coefficients[c + k] * history[position + k];
+				}
+				out[outOffset + written++] = v;
+				phase += down;
+				pending += phase / up;
+				phase %= up;
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * @return maximum number of output samples {@link #process(float[], int, int, float[], int)} writes for the given
+	 *         number of input samples
+	 */
+	public int getMaxOutputLength(int inLength) {
+		return (int) ((long) inLength * up / down) + 1;
+	}
+
+	/**
+	 * @return number of output samples {@link #process(float[], int, int, float[], int)} would write for the given
+	 *         number of input samples in the current state
+	 */
+	public int getOutputLength(int inLength) {
+		int count = 0;
+		int pending = this.pending;
+		int phase = this.phase;
+		while (pending <= inLength) {
+			inLength -= pending;
+			pending = 0;
+			while (pending <= 0) {
+				count++;
+				phase += down;
+				pending += phase / up;
+				phase %= up;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Takes over the input history of a resampler for the same rates, e.g. to switch the filter length without a gap.
+	 * The output jumps by the difference of the filter delays.
+	 */
+	public void continueFrom(PolyphaseResampler other) {
+		if (other.inRate != inRate || other.outRate != outRate) {
+			throw new IllegalArgumentException("Different sample rates: " + other + ", " + this);
+		}
+		// Newest samples last, zeros when the other history is shorter
+		for (int k = 0; k < taps; k++) {
+			int age = taps - k;
+			float sample = age <= other.taps ? other.history[other.position + other.taps - age] : 0;
+			history[k] = sample;
+			history[k + taps] = sample;
+		}
+		position = 0;
+		phase = other.phase;
+		pending = Math.max(1, other.pending + (taps - other.taps) / 2);
+	}
+
+	/**
+	 * Clears the input history.
+	 */
+	public void reset() {
+		for (int i = 0; i < history.length; i++) {
+			history[i] = 0;
+		}
+		position = 0;
+		pending = taps / 2 + 1;
+		phase = 0;
+	}
+
+	/** Returns the number of filter taps per output sample */
+	public int getFilterLength() {
+		return taps;
+	}
+
+	public int getInputRate() {
+		return inRate;
+	}
+
+	public int getOutputRate() {
+		return outRate;
+	}
+
+	@Override
+	public String toString() {
+		return inRate + " -> " + outRate + " Hz, " + up + "/" + down + ", " + taps + " taps";
+	}
+}
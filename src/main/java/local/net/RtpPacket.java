@@ -46,6 +46,21 @@ public class RtpPacket {
 		return packet_len;
 	}
 
+	/**
+	 * Makes this packet a view of a received packet held in the buffer,
+	 * without copying or touching its header
+	 */
+	public RtpPacket wrap(byte[] buffer, int packet_length) {
+		packet = buffer;
+		packet_len = packet_length;
+		return this;
+	}
+
+	/** Gets the offset of the payload in the packet buffer */
+	public int getPayloadOffset() {
+		return getHeaderLength();
+	}
+
 	/** Gets the RTP header length */
 	public int getHeaderLength() {
 		if (packet_len >= 12)
@@ -103,7 +118,7 @@ public class RtpPacket {
 	/** Set padding (P) */
 	public void setPadding(boolean p) {
 		if (packet_len >= 12)
-			setBit(p, packet[0], 5);
+			setBit(p, packet, 0, 5);
 	}
 
 	/** Whether has extension (X) */
@@ -117,7 +132,7 @@ public class RtpPacket {
 	/** Set extension (X) */
 	public void setExtension(boolean x) {
 		if (packet_len >= 12)
-			setBit(x, packet[0], 4);
+			setBit(x, packet, 0, 4);
 	}
 
 	/** Gets the CSCR count (CC) */
@@ -139,7 +154,7 @@ public class RtpPacket {
 	/** Set marker (M) */
 	public void setMarker(boolean m) {
 		if (packet_len >= 12)
-			setBit(m, packet[1], 7);
+			setBit(m, packet, 1, 7);
 	}
 
 	/** Gets the payload type (PT) */
@@ -198,6 +213,11 @@ public class RtpPacket {
 			setLong(ssrc, packet, 8, 12);
 	}
 
+	/** Gets a CSCR of the list, without allocating the list */
+	public long getCscr(int index) {
+		return getLong(packet, 12 + 4 * index, 16 + 4 * index);
+	}
+
 	/** Gets the CSCR list */
 	public long[] getCscrList() {
 		int cc = getCscrCount();
@@ -231,6 +251,17 @@ public class RtpPacket {
 		}
 	}
 
+	/**
+	 * Copies the payload into the buffer, without allocating
+	 * 
+	 * @return the payload length
+	 */
+	public int getPayload(byte[] buffer, int offset) {
+		int len = getPayloadLength();
+		System.arraycopy(packet, getHeaderLength(), buffer, offset, len);
+		return len;
+	}
+
 	/** Gets the payload */
 	public byte[] getPayload() {
 		int header_len = getHeaderLength();
@@ -275,7 +306,7 @@ public class RtpPacket {
 		long n = 0;
 		for (; begin < end; begin++) {
 			n <<= 8;
-			n += data[begin];
+			n += data[begin] & 0xFF;
 		}
 		return n;
 	}
@@ -300,14 +331,14 @@ public class RtpPacket {
 
 	/** Gets bit value */
 	private static boolean getBit(byte b, int bit) {
-		return (b >> bit) == 1;
+		return ((b >> bit) & 0x01) == 1;
 	}
 
 	/** Sets bit value */
-	private static void setBit(boolean value, byte b, int bit) {
+	private static void setBit(boolean value, byte[] data, int index, int bit) {
 		if (value)
-			b = (byte) (b | (1 << bit));
+			data[index] = (byte) (data[index] | (1 << bit));
 		else
-			b = (byte) ((b | (1 << bit)) ^ (1 << bit));
+			data[index] = (byte) (data[index] & ~(1 << bit));
 	}
 }
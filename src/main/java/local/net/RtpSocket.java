@@ -25,12 +25,17 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 /**
  * RtpSocket implements a RTP socket for receiving and sending RTP packets.
  * <p>
  * RtpSocket is associated to a DatagramSocket that is used to send and/or
- * receive RtpPackets.
+ * receive RtpPackets. When the socket belongs to a DatagramChannel, packets
+ * are sent through the channel, which may be in non-blocking mode, and
+ * {@link #poll(RtpPacket)} reads without blocking.
  */
 public class RtpSocket {
 	/** UDP socket */
@@ -42,11 +47,21 @@ public class RtpSocket {
 	/** Remote port */
 	int r_port;
 
+	/** Channel of the UDP socket, null for a plain DatagramSocket */
+	DatagramChannel channel;
+
+	/** Remote socket address, for the channel */
+	InetSocketAddress r_socket_addr;
+
+	/** Datagrams and buffers reused for the packets, receiving and sending may run in different threads */
+	DatagramPacket recv_datagram;
+	DatagramPacket send_datagram;
+	ByteBuffer recv_buffer;
+	ByteBuffer send_buffer;
+
 	/** Creates a new RTP socket (only receiver) */
 	public RtpSocket(DatagramSocket datagram_socket) {
-		socket = datagram_socket;
-		r_addr = null;
-		r_port = 0;
+		this(datagram_socket, null, 0);
 	}
 
 	/** Creates a new RTP socket (sender and receiver) */
@@ -54,6 +69,15 @@ public class RtpSocket {
 		socket = datagram_socket;
 		r_addr = remote_address;
 		r_port = remote_port;
+		channel = datagram_socket.getChannel();
+		if (remote_address != null)
+			r_socket_addr = new InetSocketAddress(remote_address, remote_port);
+		recv_datagram = new DatagramPacket(new byte[0], 0);
+		send_datagram = new DatagramPacket(new byte[0], 0);
+		if (remote_address != null) {
+			send_datagram.setAddress(remote_address);
+			send_datagram.setPort(remote_port);
+		}
 	}
 
 	/** Returns the RTP DatagramSocket */
@@ -63,17 +87,39 @@ public class RtpSocket {
 
 	/** Receives a RTP packet from this socket */
 	public void receive(RtpPacket rtpp) throws IOException {
-		DatagramPacket datagram = new DatagramPacket(rtpp.packet, rtpp.packet.length);
-		socket.receive(datagram);
-		rtpp.packet_len = datagram.getLength();
+		recv_datagram.setData(rtpp.packet);
+		socket.receive(recv_datagram);
+		rtpp.packet_len = recv_datagram.getLength();
+	}
+
+	/**
+	 * Receives a RTP packet from the channel of this socket without blocking
+	 * 
+	 * @return false if no packet is pending
+	 */
+	public boolean poll(RtpPacket rtpp) throws IOException {
+		if (recv_buffer == null || recv_buffer.array() != rtpp.packet)
+			recv_buffer = ByteBuffer.wrap(rtpp.packet);
+		recv_buffer.clear();
+		if (channel.receive(recv_buffer) == null)
+			return false;
+		rtpp.packet_len = recv_buffer.position();
+		return true;
 	}
 
 	/** Sends a RTP packet from this socket */
 	public void send(RtpPacket rtpp) throws IOException {
-		DatagramPacket datagram = new DatagramPacket(rtpp.packet, rtpp.packet_len);
-		datagram.setAddress(r_addr);
-		datagram.setPort(r_port);
-		socket.send(datagram);
+		if (channel != null) {
+			if (send_buffer == null || send_buffer.array() != rtpp.packet)
+				send_buffer = ByteBuffer.wrap(rtpp.packet);
+			send_buffer.clear();
+			send_buffer.limit(rtpp.packet_len);
+			// A full send buffer of a non-blocking channel drops the packet
+			channel.send(send_buffer, r_socket_addr);
+			return;
+		}
+		send_datagram.setData(rtpp.packet, 0, rtpp.packet_len);
+		socket.send(send_datagram);
 	}
 
 	/** Closes this socket */
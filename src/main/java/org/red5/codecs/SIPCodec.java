@@ -30,8 +30,22 @@ public interface SIPCodec {
 
 	public int pcmToCodec(float[] bufferIn, byte[] bufferOut);
 
+	/**
+	 * Encodes a PCM frame into bufferOut starting at offset, e.g. directly behind an RTP header.
+	 *
+	 * @return number of bytes written
+	 */
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut, int offset);
+
 	public int codecToPcm(byte[] bufferIn, float[] bufferOut);
 
+	/**
+	 * Decodes a replacement for a lost incoming frame into bufferOut, continuing from the frames decoded before.
+	 *
+	 * @return number of samples written, 0 if the codec cannot conceal losses
+	 */
+	public int concealToPcm(float[] bufferOut);
+
 	public int getIncomingEncodedFrameSize();
 
 	public int getIncomingDecodedFrameSize();
@@ -42,6 +56,11 @@ public interface SIPCodec {
 
 	public int getSampleRate();
 
+	/**
+	 * @return clock rate of RTP timestamps, differs from the sample rate for G.722
+	 */
+	public int getRtpClockRate();
+
 	public String getCodecName();
 
 	public int getCodecId();
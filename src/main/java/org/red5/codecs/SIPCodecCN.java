@@ -0,0 +1,214 @@
+package org.red5.codecs;
+
+import java.util.Random;
+
+/**
+ * Comfort Noise payload (RFC 3389). Only the noise level is transmitted, SID frames carry no spectral information.
+ */
+public class SIPCodecCN implements SIPCodec {
+	// Codec information
+	private static final String codecName = "CN";
+
+	private static final int codecId = 13;
+
+	/** SID frame size: noise level only */
+	private static int defaultEncodedFrameSize = 1;
+
+	private static int defaultDecodedFrameSize = 160;
+
+	private static int defaultSampleRate = 8000;
+
+	/** Noise level of digital silence [-dBov] */
+	public static final int SILENCE_LEVEL = 127;
+
+	private final Random random = new Random();
+
+	private int outgoingPacketization = 0;
+
+	private int incomingPacketization = 0;
+
+	public SIPCodecCN() {
+
+	}
+
+	/**
+	 * @return noise level of the PCM frame [-dBov], between 0 and {@link #SILENCE_LEVEL}
+	 */
+	public static int noiseLevel(float[] pcm, int length) {
+
+		double energy = 0;
+		for (int i = 0; i < length; i++) {
+			energy += pcm[i] * pcm[i];
+		}
+		if (energy == 0) {
+			return SILENCE_LEVEL;
+		}
+		double dBov = 10 * Math.log10(energy / length / (32768.0 * 32768.0));
+		return (int) Math.max(0, Math.min(SILENCE_LEVEL, Math.round(-dBov)));
+	}
+
+	@Override
+	public void encodeInit(int defaultEncodePacketization) {
+
+		if (this.outgoingPacketization == 0) {
+
+			this.outgoingPacketization = defaultEncodePacketization;
+		}
+	}
+
+	@Override
+	public void decodeInit(int defaultDecodePacketization) {
+
+		if (this.incomingPacketization == 0) {
+
+			this.incomingPacketization = defaultDecodePacketization;
+		}
+	}
+
+	@Override
+	public String codecNegotiateAttribute(String attributeName, String localAttributeValue, String remoteAttributeValue) {
+
+		// Not applicable for this codec type
+		return null;
+	}
+
+	@Override
+	public int getCodecBlankPacket(byte[] buffer, int offset) {
+
+		buffer[offset] = (byte) SILENCE_LEVEL;
+
+		return defaultEncodedFrameSize;
+	}
+
+	/**
+	 * Generates white noise of the level carried by the SID frame.
+	 */
+	@Override
+	public int codecToPcm(byte[] bufferIn, float[] bufferOut) {
+
+		if (bufferIn.length > 0) {
+			double rms = 32768 * Math.pow(10, -(bufferIn[0] & 0x7F) / 20.0);
+			for (int i = 0; i < bufferOut.length; i++) {
+				bufferOut[i] = (float) (random.nextGaussian() * rms);
+			}
+
+			return bufferOut.length;
+		} else {
+			return 0;
+		}
+	}
+
+	@Override
+	public int concealToPcm(float[] bufferOut) {
+
+		// Comfort noise is not concealed, the previous noise level lasts until the next SID frame
+		return 0;
+	}
+
+	/**
+	 * Encodes the SID frame describing the noise level of the PCM frame.
+	 */
+	@Override
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut) {
+
+		return pcmToCodec(bufferIn, bufferOut, 0);
+	}
+
+	@Override
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut, int offset) {
+
+		if (bufferIn.length > 0) {
+			bufferOut[offset] = (byte) noiseLevel(bufferIn, bufferIn.length);
+
+			return defaultEncodedFrameSize;
+		} else {
+			return 0;
+		}
+	}
+
+	@Override
+	public int getIncomingEncodedFrameSize() {
+
+		return defaultEncodedFrameSize;
+	}
+
+	@Override
+	public int getIncomingDecodedFrameSize() {
+
+		return (defaultDecodedFrameSize / SIPCodec.DEFAULT_PACKETIZATION) * incomingPacketization;
+	}
+
+	@Override
+	public int getOutgoingEncodedFrameSize() {
+
+		return defaultEncodedFrameSize;
+	}
+
+	@Override
+	public int getOutgoingDecodedFrameSize() {
+
+		return (defaultDecodedFrameSize / SIPCodec.DEFAULT_PACKETIZATION) * outgoingPacketization;
+	}
+
+	@Override
+	public int getIncomingPacketization() {
+
+		return incomingPacketization;
+	}
+
+	@Override
+	public int getOutgoingPacketization() {
+
+		return outgoingPacketization;
+	}
+
+	@Override
+	public void setLocalPtime(int localPtime) {
+
+		// Test for prior update during attributes negotiation.
+		if (this.incomingPacketization == 0) {
+
+			incomingPacketization = localPtime;
+		}
+	}
+
+	@Override
+	public void setRemotePtime(int remotePtime) {
+
+		// Test for prior update during attributes negotiation.
+		if (this.outgoingPacketization == 0) {
+
+			outgoingPacketization = remotePtime;
+		}
+	}
+
+	@Override
+	public int getSampleRate() {
+
+		return defaultSampleRate;
+	}
+
+	@Override
+	public int getRtpClockRate() {
+
+		return getSampleRate();
+	}
+
+	@Override
+	public String getCodecName() {
+
+		return codecName;
+	}
+
+	@Override
+	public int getCodecId() {
+
+		return codecId;
+	}
+
+	@Override
+	public String[] getCodecMediaAttributes() {
+
+		return null;
+	}
+}
@@ -16,11 +16,19 @@ public class SIPCodecFactory {
 
 	private static final int audioCodecPCMA = 8;
 
+	private static final int audioCodecG722 = 9;
+
 	private static final int audioCodecG729 = 18;
 
 	private static final int audioCodeciLBC = 111;
 
-	private int[] availableAudioCodecsId = { audioCodecPCMU, audioCodecPCMA, audioCodecG729, audioCodeciLBC };
+	private int[] availableAudioCodecsId = { audioCodecPCMU, audioCodecPCMA, audioCodecG722, audioCodecG729,
+			audioCodeciLBC };
+
+	// Comfort noise, offered next to the audio codecs
+	private static final int audioCodecCN = 13;
+
+	private boolean comfortNoise = true;
 
 	// ----------------
 	// Available video codecs
@@ -57,12 +65,18 @@ public class SIPCodecFactory {
 		case audioCodecPCMA:
 			sipCodec = new SIPCodecPCMA();
 			break;
+		case audioCodecG722:
+			sipCodec = new SIPCodecG722();
+			break;
 		case audioCodecG729:
 			sipCodec = new SIPCodecG729();
 			break;
 		case audioCodeciLBC:
 			sipCodec = new SIPCodeciLBC();
 			break;
+		case audioCodecCN:
+			sipCodec = new SIPCodecCN();
+			break;
 		case videoCodecH264:
         	sipCodec = new SIPCodecH264();
         	break;
@@ -176,6 +190,32 @@ public class SIPCodecFactory {
 
 	}
 
+	/**
+	 * @return Comfort noise codec, or null if comfort noise is disabled
+	 */
+	public SIPCodec getComfortNoiseCodec() {
+
+		return comfortNoise ? getSIPMediaCodec(audioCodecCN) : null;
+	}
+
+	/**
+	 * @return Whether the payload id is the comfort noise payload
+	 */
+	public boolean isComfortNoise(int codecId) {
+
+		return codecId == audioCodecCN;
+	}
+
+	public boolean isComfortNoiseEnabled() {
+
+		return comfortNoise;
+	}
+
+	public void setComfortNoiseEnabled(boolean comfortNoise) {
+
+		this.comfortNoise = comfortNoise;
+	}
+
 	/**
 	 * @return Count of available audio codecs
 	 */
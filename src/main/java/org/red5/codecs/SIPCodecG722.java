@@ -0,0 +1,191 @@
+package org.red5.codecs;
+
+import org.red5.codecs.g722.Decoder;
+import org.red5.codecs.g722.Encoder;
+
+/**
+ * G.722 wideband codec at 64 kbit/s. Audio is sampled at 16 kHz, but the RTP clock runs at 8 kHz for historic
+ * reasons (RFC 3551).
+ */
+public class SIPCodecG722 implements SIPCodec {
+	// Codec information
+	private static final String codecName = "G722";
+
+	private static final int codecId = 9;
+
+	private static int defaultEncodedFrameSize = 160;
+
+	private static int defaultDecodedFrameSize = 320;
+
+	private static int defaultSampleRate = 16000;
+
+	private static int rtpClockRate = 8000;
+
+	private int outgoingPacketization = 0;
+
+	private int incomingPacketization = 0;
+
+	private Encoder encoder = new Encoder();
+
+	private Decoder decoder = new Decoder();
+
+	private final WaveformPlc plc = new WaveformPlc(defaultSampleRate);
+
+	// One packetization of zero samples, encoded apart so the encoder of the call keeps its ADPCM state
+	private byte[] blankPacket = null;
+
+	public SIPCodecG722() {
+
+	}
+
+	@Override
+	public void encodeInit(int defaultEncodePacketization) {
+
+		if (this.outgoingPacketization == 0) {
+
+			this.outgoingPacketization = defaultEncodePacketization;
+		}
+	}
+
+	@Override
+	public void decodeInit(int defaultDecodePacketization) {
+
+		if (this.incomingPacketization == 0) {
+
+			this.incomingPacketization = defaultDecodePacketization;
+		}
+	}
+
+	@Override
+	public String codecNegotiateAttribute(String attributeName, String localAttributeValue, String remoteAttributeValue) {
+
+		// Not applicable for this codec type
+		return null;
+	}
+
+	@Override
+	public int getCodecBlankPacket(byte[] buffer, int offset) {
+
+		int length = getOutgoingEncodedFrameSize();
+		if (blankPacket == null || blankPacket.length != length) {
+			blankPacket = new byte[length];
+			new Encoder().encode(new float[getOutgoingDecodedFrameSize()], blankPacket, 0);
+		}
+		System.arraycopy(blankPacket, 0, buffer, offset, length);
+
+		return length;
+	}
+
+	@Override
+	public int codecToPcm(byte[] bufferIn, float[] bufferOut) {
+
+		int length = decoder.decode(bufferIn, 0, bufferIn.length, bufferOut, 0);
+		plc.received(bufferOut, 0, length);
+		return length;
+	}
+
+	@Override
+	public int concealToPcm(float[] bufferOut) {
+
+		// G.722 has no concealment of its own, the ADPCM state just continues with the next frame
+		return plc.conceal(bufferOut, 0, getIncomingDecodedFrameSize());
+	}
+
+	@Override
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut) {
+
+		return encoder.encode(bufferIn, bufferOut, 0);
+	}
+
+	@Override
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut, int offset) {
+
+		return encoder.encode(bufferIn, bufferOut, offset);
+	}
+
+	@Override
+	public int getIncomingEncodedFrameSize() {
+
+		return (defaultEncodedFrameSize / SIPCodec.DEFAULT_PACKETIZATION) * incomingPacketization;
+	}
+
+	@Override
+	public int getIncomingDecodedFrameSize() {
+
+		return (defaultDecodedFrameSize / SIPCodec.DEFAULT_PACKETIZATION) * incomingPacketization;
+	}
+
+	@Override
+	public int getOutgoingEncodedFrameSize() {
+
+		return (defaultEncodedFrameSize / SIPCodec.DEFAULT_PACKETIZATION) * outgoingPacketization;
+	}
+
+	@Override
+	public int getOutgoingDecodedFrameSize() {
+
+		return (defaultDecodedFrameSize / SIPCodec.DEFAULT_PACKETIZATION) * outgoingPacketization;
+	}
+
+	@Override
+	public int getIncomingPacketization() {
+
+		return incomingPacketization;
+	}
+
+	@Override
+	public int getOutgoingPacketization() {
+
+		return outgoingPacketization;
+	}
+
+	@Override
+	public void setLocalPtime(int localPtime) {
+
+		// Test for prior update during attributes negotiation.
+		if (this.incomingPacketization == 0) {
+
+			incomingPacketization = localPtime;
+		}
+	}
+
+	@Override
+	public void setRemotePtime(int remotePtime) {
+
+		// Test for prior update during attributes negotiation.
+		if (this.outgoingPacketization == 0) {
+
+			outgoingPacketization = remotePtime;
+		}
+	}
+
+	@Override
+	public int getSampleRate() {
+
+		return defaultSampleRate;
+	}
+
+	@Override
+	public int getRtpClockRate() {
+
+		return rtpClockRate;
+	}
+
+	@Override
+	public String getCodecName() {
+
+		return codecName;
+	}
+
+	@Override
+	public int getCodecId() {
+
+		return codecId;
+	}
+
+	@Override
+	public String[] getCodecMediaAttributes() {
+
+		return null;
+	}
+}
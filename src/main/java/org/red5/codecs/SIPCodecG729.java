@@ -69,6 +69,12 @@ public class SIPCodecG729 implements SIPCodec {
 		return bufferOut.length;
 	}
 
+	@Override
+	public int concealToPcm(float[] bufferOut) {
+
+		return decoder.conceal(bufferOut, getIncomingDecodedFrameSize());
+	}
+
 	@Override
 	public int pcmToCodec(float[] bufferIn, byte[] bufferOut) {
 
@@ -77,6 +83,12 @@ public class SIPCodecG729 implements SIPCodec {
 		return bufferOut.length;
 	}
 
+	@Override
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut, int offset) {
+
+		return encoder.encode(bufferIn, bufferOut, offset);
+	}
+
 	@Override
 	public int getIncomingEncodedFrameSize() {
 
@@ -139,6 +151,12 @@ public class SIPCodecG729 implements SIPCodec {
 		return defaultSampleRate;
 	}
 
+	@Override
+	public int getRtpClockRate() {
+
+		return getSampleRate();
+	}
+
 	@Override
 	public String getCodecName() {
 
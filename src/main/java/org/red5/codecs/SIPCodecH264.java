@@ -40,12 +40,23 @@ public class SIPCodecH264 implements SIPCodec {
 		return 0;
 	}
 
+	@Override
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut, int offset) {
+		return 0;
+	}
+
 	@Override
 	public int codecToPcm(byte[] bufferIn, float[] bufferOut) {
 		// TODO Auto-generated method stub
 		return 0;
 	}
 
+	@Override
+	public int concealToPcm(float[] bufferOut) {
+		// Not applicable for video
+		return 0;
+	}
+
 	@Override
 	public int getIncomingEncodedFrameSize() {
 		return (defaultEncodedFrameSize / SIPCodec.DEFAULT_PACKETIZATION) * incomingPacketization;
@@ -71,6 +82,11 @@ public class SIPCodecH264 implements SIPCodec {
 		return 90000;
 	}
 
+	@Override
+	public int getRtpClockRate() {
+		return getSampleRate();
+	}
+
 	@Override
 	public String getCodecName() {
 		return codecName;
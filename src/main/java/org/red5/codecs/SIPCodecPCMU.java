@@ -20,6 +20,8 @@ public class SIPCodecPCMU implements SIPCodec {
 
 	private int incomingPacketization = 0;
 
+	private final WaveformPlc plc = new WaveformPlc(defaultSampleRate);
+
 	public SIPCodecPCMU() {
 
 	}
@@ -64,6 +66,7 @@ public class SIPCodecPCMU implements SIPCodec {
 			for (int i = 0; i < bufferIn.length; i++) {
 				bufferOut[i] = G711.ulaw2linear(bufferIn[i]);
 			}
+			plc.received(bufferOut, 0, bufferIn.length);
 
 			return bufferOut.length;
 		} else {
@@ -71,6 +74,12 @@ public class SIPCodecPCMU implements SIPCodec {
 		}
 	}
 
+	@Override
+	public int concealToPcm(float[] bufferOut) {
+
+		return plc.conceal(bufferOut, 0, getIncomingDecodedFrameSize());
+	}
+
 	@Override
 	public int pcmToCodec(float[] bufferIn, byte[] bufferOut) {
 
@@ -85,6 +94,16 @@ public class SIPCodecPCMU implements SIPCodec {
 		}
 	}
 
+	@Override
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut, int offset) {
+
+		for (int i = 0; i < bufferIn.length; i++) {
+			bufferOut[offset + i] = (byte) G711.linear2ulaw((int) bufferIn[i]);
+		}
+
+		return bufferIn.length;
+	}
+
 	@Override
 	public int getIncomingEncodedFrameSize() {
 
@@ -147,6 +166,12 @@ public class SIPCodecPCMU implements SIPCodec {
 		return defaultSampleRate;
 	}
 
+	@Override
+	public int getRtpClockRate() {
+
+		return getSampleRate();
+	}
+
 	@Override
 	public String getCodecName() {
 
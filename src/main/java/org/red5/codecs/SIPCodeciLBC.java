@@ -41,6 +41,8 @@ public class SIPCodeciLBC implements SIPCodec {
 
 	private ilbc_decoder ilbcDecoder;
 
+	private bitstream lostBitStream = null;
+
 	public SIPCodeciLBC() {
 
 	}
@@ -55,6 +57,7 @@ public class SIPCodeciLBC implements SIPCodec {
 	public void decodeInit(int defaultDecodePacketization) {
 
 		ilbcDecoder = new ilbc_decoder(incomingPacketization, 1);
+		lostBitStream = new bitstream(getIncomingEncodedFrameSize() * 2);
 	}
 
 	@Override
@@ -129,6 +132,15 @@ public class SIPCodeciLBC implements SIPCodec {
 		return getOutgoingDecodedFrameSize();
 	}
 
+	@Override
+	public int concealToPcm(float[] bufferOut) {
+
+		// PLC mode, the bit stream is not read
+		ilbcDecoder.iLBC_decode(bufferOut, lostBitStream, 0);
+
+		return getIncomingDecodedFrameSize();
+	}
+
 	@Override
 	public int pcmToCodec(float[] bufferIn, byte[] bufferOut) {
 
@@ -147,6 +159,22 @@ public class SIPCodeciLBC implements SIPCodec {
 		return getIncomingEncodedFrameSize();
 	}
 
+	@Override
+	public int pcmToCodec(float[] bufferIn, byte[] bufferOut, int offset) {
+
+		bitstream encodedBitStream = new bitstream(getIncomingEncodedFrameSize() * 2);
+
+		ilbcEncoder.iLBC_encode(encodedBitStream, bufferIn);
+
+		// The packed bit stream is in network order already
+		int length = getIncomingEncodedFrameSize();
+		for (int i = 0; i < length; i++) {
+			bufferOut[offset + i] = (byte) encodedBitStream.buffer[i];
+		}
+
+		return length;
+	}
+
 	@Override
 	public int getIncomingEncodedFrameSize() {
 
@@ -227,6 +255,12 @@ public class SIPCodeciLBC implements SIPCodec {
 		return defaultSampleRate;
 	}
 
+	@Override
+	public int getRtpClockRate() {
+
+		return getSampleRate();
+	}
+
 	@Override
 	public String getCodecName() {
 
@@ -0,0 +1,195 @@
+package org.red5.codecs;
+
+/**
+ * Waveform repetition packet loss concealment for codecs without a concealment of their own, after ITU-T G.711
+ * Appendix I.
+ * <p>
+ * Decoded audio is kept in a short history. A lost frame is replaced by repeating the last pitch period of the
+ * history, three periods once the loss lasts longer than 10 ms to avoid a buzzing tone. The replacement is attenuated
+ * by 20% per 10 ms after the first 10 ms, so it fades out completely after 60 ms. The first frame received after a
+ * loss is cross-faded with the continued replacement. Splices are smoothed by overlap-adding a quarter of the pitch
+ * period. Unlike Appendix I the output is not delayed, so the start of the concealment is not smoothed. Not thread
+ * safe.
+ */
+public class WaveformPlc {
+	// Pitch search range and history length at 8 kHz [samples]
+	private static final int PITCH_MIN = 40;
+	private static final int PITCH_MAX = 120;
+	private static final int HISTORY = 390;
+	// Correlation window of the pitch search at 8 kHz [samples]
+	private static final int CORRELATION_WINDOW = 160;
+	// Periods repeated after the first 10 ms of a loss
+	private static final int MAX_PERIODS = 3;
+	private static final float ATTENUATION_PER_10MS = .2f;
+
+	private final int scale;
+	private final int tenMs;
+	private final float[] history;
+	private final float[] loop;
+	private final float[] previousLoop;
+
+	// Concealment state
+	private int erased = 0;
+	private int pitch = 0;
+	private int overlap = 0;
+	private int periods = 0;
+	private int loopLength = 0;
+	private int position = 0;
+	private int previousLength = 0;
+	private int previousPosition = 0;
+	private int crossFade = 0;
+
+	/**
+	 * Constructs a WaveformPlc.
+	 *
+	 * @param sampleRate
+	 *            sample rate of the decoded audio, a multiple of 8000 Hz
+	 */
+	public WaveformPlc(int sampleRate) {
+		if (sampleRate < 8000 || sampleRate % 8000 != 0) {
+			throw new IllegalArgumentException("Unsupported sample rate: " + sampleRate);
+		}
+		this.scale = sampleRate / 8000;
+		this.tenMs = sampleRate / 100;
+		this.history = new float[HISTORY * scale];
+		this.loop = new float[MAX_PERIODS * PITCH_MAX * scale];
+		this.previousLoop = new float[loop.length];
+	}
+
+	/**
+	 * Records a decoded frame. The start of the first frame after a loss is cross-faded with the replacement.
+	 */
+	public void received(float[] pcm, int offset, int length) {
+		if (erased > 0) {
+			int fade = Math.min(length, overlap + (erased > tenMs ? tenMs * 2 / 5 : 0));
+			float gain = gain(erased);
+			for (int i = 0; i < fade; i++) {
+				float w = (i + 1) / (float) (fade + 1);
+				pcm[offset + i] = pcm[offset + i] * w + next() * gain * (1 - w);
+			}
+			erased = 0;
+		}
+		append(pcm, offset, length);
+	}
+
+	/**
+	 * Writes the replacement of a lost frame.
+	 *
+	 * @return number of samples written
+	 */
+	public int conceal(float[] out, int offset, int length) {
+		if (erased == 0) {
+			pitch = findPitch();
+			overlap = pitch / 4;
+			periods = 1;
+			buildLoop();
+			position = 0;
+			crossFade = 0;
+		}
+		for (int i = 0; i < length; i++) {
+			if (periods == 1 && erased >= tenMs) {
+				// Longer losses repeat more periods, cross-faded from the single one
+				System.arraycopy(loop, 0, previousLoop, 0, loopLength);
+				previousLength = loopLength;
+				previousPosition = position;
+				periods = MAX_PERIODS;
+				buildLoop();
+				// Same phase in the most recent period
+				position = position % pitch + (periods - 1) * pitch;
+				crossFade = overlap;
+			}
+			float sample = next();
+			if (crossFade > 0) {
+				float w = crossFade / (float) (overlap + 1);
+				sample = sample * (1 - w) + previousLoop[previousPosition] * w;
+				previousPosition = (previousPosition + 1) % previousLength;
+				crossFade--;
+			}
+			out[offset + i] = sample * gain(erased);
+			erased++;
+		}
+		return length;
+	}
+
+	/**
+	 * @return whether the last frame was concealed
+	 */
+	public boolean isConcealing() {
+		return erased > 0;
+	}
+
+	// Gain of the replacement after the given number of erased samples
+	private float gain(int erased) {
+		if (erased < tenMs) {
+			return 1;
+		}
+		return Math.max(0, 1 - ATTENUATION_PER_10MS * (erased - tenMs) / tenMs);
+	}
+
+	private float next() {
+		float sample = loop[position];
+		if (++position == loopLength) {
+			position = 0;
+		}
+		return sample;
+	}
+
+	private void append(float[] pcm, int offset, int length) {
+		if (length >= history.length) {
+			System.arraycopy(pcm, offset + length - history.length, history, 0, history.length);
+		} else {
+			System.arraycopy(history, length, history, 0, history.length - length);
+			System.arraycopy(pcm, offset, history, history.length - length, length);
+		}
+	}
+
+	// Copies the last periods of the history, the end overlap-added with the samples before them to loop seamlessly
+	private void buildLoop() {
+		loopLength = periods * pitch;
+		int start = history.length - loopLength;
+		System.arraycopy(history, start, loop, 0, loopLength);
+		for (int i = 0; i < overlap; i++) {
+			float w = (i + 1) / (float) (overlap + 1);
+			int j = loopLength - overlap + i;
+			loop[j] = history[start + j] * (1 - w) + history[start + j - loopLength] * w;
+		}
+	}
+
+	// Lag of the maximum normalized correlation of the recent history, at half rate first and refined around it
+	private int findPitch() {
+		int min = PITCH_MIN * scale;
+		int max = PITCH_MAX * scale;
+		int window = CORRELATION_WINDOW * scale;
+		int end = history.length;
+		int best = min;
+		float bestScore = Float.NEGATIVE_INFINITY;
+		for (int lag = min; lag <= max; lag += 2) {
+			float score = correlation(end, window, lag, 2);
+			if (score > bestScore) {
+				bestScore = score;
+				best = lag;
+			}
+		}
+		int coarse = best;
+		bestScore = Float.NEGATIVE_INFINITY;
+		for (int lag = Math.max(min, coarse - 1); lag <= Math.min(max, coarse + 1); lag++) {
+			float score = correlation(end, window, lag, 1);
+			if (score > bestScore) {
+				bestScore = score;
+				best = lag;
+			}
+		}
+		return best;
+	}
+
+	private float correlation(int end, int window, int lag, int step) {
+		float sum = 0;
+		float energy = 1;
+		for (int i = end - window; i < end; i += step) {
+			float delayed = history[i - lag];
+			sum += history[i] * delayed;
+			energy += delayed * delayed;
+		}
+		return sum / (float) Math.sqrt(energy);
+	}
+}
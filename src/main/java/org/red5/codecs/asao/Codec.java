@@ -139,7 +139,7 @@ public final class Codec {
 
 		int k3 = process(af5, 124, 198, ai);
 
-		for (int i4 = 0; i4 < 256; /* FIXME DEAD CODE i4 += 128 */) {
+		for (int i4 = 0; i4 < 256; i4 += 128) {
 			for (int l4 = 0; l4 < 124; l4++) {
 				int k5 = ai[l4];
 				if (k5 > 0) {
@@ -149,19 +149,15 @@ public final class Codec {
 				}
 			}
 
-			int i5 = k3;
-			do {
-				if (i5 <= 0) {
-					continue;
-				}
+			// Pads each half of the frame with the bits left over
+			for (int i5 = k3; i5 > 0; i5 -= 8) {
 				if (i5 > 8) {
 					j2.state(0, 8);
 				} else {
 					j2.state(0, i5);
-					continue;
+					break;
 				}
-				i5 -= 8;
-			} while (true);
+			}
 		}
 	}
 
@@ -231,6 +227,31 @@ public final class Codec {
 
 	}
 
+	/**
+	 * Estimates the energy of an encoded frame from its band energy header, without decoding it.
+	 *
+	 * @return mean band energy weighted by band width [log2 of amplitude]
+	 */
+	public static float energy(byte[] abyte0, int i1) {
+		int pos = 0;
+		float band = i_nelly_init_table[bits(abyte0, i1, pos, g[0])];
+		pos += g[0];
+		float sum = band * (f[1] - f[0]);
+		for (int k = 1; k < 23; k++) {
+			band += j_nelly_delta_table[bits(abyte0, i1, pos, g[k])];
+			pos += g[k];
+			sum += band * (f[k + 1] - f[k]);
+		}
+		return sum / f[23] * 0.00048828125F;
+	}
+
+	// Reads n <= 8 bits at bit position pos, least significant bit first like StateTable
+	private static int bits(byte[] abyte0, int i1, int pos, int n) {
+		int k = i1 + (pos >> 3);
+		int v = (abyte0[k] & 0xff) | (abyte0[k + 1] & 0xff) << 8;
+		return v >> (pos & 7) & (1 << n) - 1;
+	}
+
 	private static void process(float[] af, float[] af1, float[] af2, int i1, int j1) {
 
 		int k1 = 1 << j1;
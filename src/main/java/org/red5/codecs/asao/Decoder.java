@@ -49,6 +49,14 @@ public final class Decoder {
 		return d1;
 	}
 
+	/**
+	 * Cheap energy estimate of an encoded frame, see {@link Codec#energy(byte[], int)}.
+	 */
+	public static float energy(byte[] abyte0, int i) {
+
+		return Codec.energy(abyte0, i);
+	}
+
 	public DecoderMap decode(DecoderMap d1, byte[] abyte0, int i, byte[] abyte1, int j, boolean flag) {
 
 		if (d1 == null) {
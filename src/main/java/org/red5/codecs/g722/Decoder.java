@@ -0,0 +1,72 @@
+package org.red5.codecs.g722;
+
+import static org.red5.codecs.g722.G722.*;
+
+/**
+ * G.722 decoder, 64 kbit/s mode: each byte carries a 6 bit lower band and a 2 bit higher band ADPCM code, the
+ * receive QMF merges both bands into two 16 kHz PCM samples. Not thread safe.
+ */
+public class Decoder {
+	private final Band low = new Band(32);
+	private final Band high = new Band(8);
+	// Receive QMF delay line
+	private final int[] x = new int[24];
+
+	/**
+	 * Decodes length bytes from bufferIn into bufferOut.
+	 *
+	 * @return number of samples written, twice the number of bytes
+	 */
+	public int decode(byte[] bufferIn, int offset, int length, float[] bufferOut, int outOffset) {
+		int outLength = 0;
+		for (int j = offset; j < offset + length; j++) {
+			int code = bufferIn[j] & 0xFF;
+			int rlow = decodeLow(code & 0x3F);
+			int rhigh = decodeHigh((code >> 6) & 0x03);
+
+			// Receive QMF
+			System.arraycopy(x, 2, x, 0, 22);
+			x[22] = rlow + rhigh;
+			x[23] = rlow - rhigh;
+			int xout1 = 0;
+			int xout2 = 0;
+			for (int i = 0; i < 12; i++) {
+				xout2 += x[2 * i] * QMF_COEFFS[i];
+				xout1 += x[2 * i + 1] * QMF_COEFFS[11 - i];
+			}
+			bufferOut[outOffset + outLength++] = Band.saturate(xout1 >> 11);
+			bufferOut[outOffset + outLength++] = Band.saturate(xout2 >> 11);
+		}
+		return outLength;
+	}
+
+	private int decodeLow(int ilow) {
+		// INVQBL, RECONS, LIMIT
+		int rlow = low.s + ((low.det * QM6[ilow]) >> 15);
+		rlow = Math.max(-16384, Math.min(16383, rlow));
+
+		// INVQAL
+		int ril = ilow >> 2;
+		int dlow = (low.det * QM4[ril]) >> 15;
+
+		// LOGSCL, SCALEL
+		low.nb = logScale(low.nb, WL[RL42[ril]], NB_MAX_LOW);
+		low.scale(8);
+
+		low.adapt(dlow);
+		return rlow;
+	}
+
+	private int decodeHigh(int ihigh) {
+		// INVQAH, RECONS, LIMIT
+		int dhigh = (high.det * QM2[ihigh]) >> 15;
+		int rhigh = Math.max(-16384, Math.min(16383, high.s + dhigh));
+
+		// LOGSCH, SCALEH
+		high.nb = logScale(high.nb, WH[RH2[ihigh]], NB_MAX_HIGH);
+		high.scale(10);
+
+		high.adapt(dhigh);
+		return rhigh;
+	}
+}
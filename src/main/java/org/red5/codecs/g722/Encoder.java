@@ -0,0 +1,86 @@
+package org.red5.codecs.g722;
+
+import static org.red5.codecs.g722.G722.*;
+
+/**
+ * G.722 encoder, 64 kbit/s mode: 16 kHz PCM is split into two sub-bands by the QMF, the lower band is coded with 6 bit
+ * and the higher band with 2 bit ADPCM into one byte per two samples. Not thread safe.
+ */
+public class Encoder {
+	private final Band low = new Band(32);
+	private final Band high = new Band(8);
+	// Transmit QMF delay line
+	private final int[] x = new int[24];
+
+	/**
+	 * Encodes PCM (16 bit range) into bufferOut starting at offset.
+	 *
+	 * @return number of bytes written, half the number of samples
+	 */
+	public int encode(float[] bufferIn, byte[] bufferOut, int offset) {
+		int length = bufferIn.length / SAMPLES_PER_BYTE;
+		for (int j = 0, n = 0; n < length; n++) {
+			// Transmit QMF, every other output is discarded
+			System.arraycopy(x, 2, x, 0, 22);
+			x[22] = Band.saturate((int) bufferIn[j++]);
+			x[23] = Band.saturate((int) bufferIn[j++]);
+			int sumEven = 0;
+			int sumOdd = 0;
+			for (int i = 0; i < 12; i++) {
+				sumOdd += x[2 * i] * QMF_COEFFS[i];
+				sumEven += x[2 * i + 1] * QMF_COEFFS[11 - i];
+			}
+			int xlow = (sumEven + sumOdd) >> 14;
+			int xhigh = (sumEven - sumOdd) >> 14;
+
+			bufferOut[offset + n] = (byte) ((encodeHigh(xhigh) << 6) | encodeLow(xlow));
+		}
+		return length;
+	}
+
+	private int encodeLow(int xlow) {
+		// SUBTRA
+		int el = Band.saturate(xlow - low.s);
+
+		// QUANTL
+		int wd = (el >= 0) ? el : -(el + 1);
+		int i;
+		for (i = 1; i < 30; i++) {
+			if (wd < (Q6[i] * low.det) >> 12) {
+				break;
+			}
+		}
+		int ilow = (el < 0) ? ILN[i] : ILP[i];
+
+		// INVQAL
+		int ril = ilow >> 2;
+		int dlow = (low.det * QM4[ril]) >> 15;
+
+		// LOGSCL, SCALEL
+		low.nb = logScale(low.nb, WL[RL42[ril]], NB_MAX_LOW);
+		low.scale(8);
+
+		low.adapt(dlow);
+		return ilow;
+	}
+
+	private int encodeHigh(int xhigh) {
+		// SUBTRA
+		int eh = Band.saturate(xhigh - high.s);
+
+		// QUANTH
+		int wd = (eh >= 0) ? eh : -(eh + 1);
+		int mih = (wd >= (564 * high.det) >> 12) ? 2 : 1;
+		int ihigh = (eh < 0) ? IHN[mih] : IHP[mih];
+
+		// INVQAH
+		int dhigh = (high.det * QM2[ihigh]) >> 15;
+
+		// LOGSCH, SCALEH
+		high.nb = logScale(high.nb, WH[RH2[ihigh]], NB_MAX_HIGH);
+		high.scale(10);
+
+		high.adapt(dhigh);
+		return ihigh;
+	}
+}
@@ -0,0 +1,62 @@
+package org.red5.codecs.g722;
+
+/**
+ * ITU-T G.722 tables shared by the 64 kbit/s encoder and decoder.
+ */
+final class G722 {
+	/** PCM samples per codeword: one lower and one higher band sample of the QMF output */
+	static final int SAMPLES_PER_BYTE = 2;
+
+	/** Transmit and receive QMF coefficients */
+	static final int[] QMF_COEFFS = { 3, -11, 12, 32, -210, 951, 3876, -805, 362, -156, 53, -11 };
+
+	/** Lower band quantizer decision levels */
+	static final int[] Q6 = { 0, 35, 72, 110, 150, 190, 233, 276, 323, 370, 422, 473, 530, 587, 650, 714, 786, 858,
+			940, 1023, 1121, 1219, 1339, 1458, 1612, 1765, 1980, 2195, 2557, 2919, 0, 0 };
+	static final int[] ILN = { 0, 63, 62, 31, 30, 29, 28, 27, 26, 25, 24, 23, 22, 21, 20, 19, 18, 17, 16, 15, 14, 13,
+			12, 11, 10, 9, 8, 7, 6, 5, 4, 0 };
+	static final int[] ILP = { 0, 61, 60, 59, 58, 57, 56, 55, 54, 53, 52, 51, 50, 49, 48, 47, 46, 45, 44, 43, 42, 41,
+			40, 39, 38, 37, 36, 35, 34, 33, 32, 0 };
+
+	/** Lower band 6 bit inverse quantizer */
+	static final int[] QM6 = { -136, -136, -136, -136, -24808, -21904, -19008, -16704, -14984, -13512, -12280, -11192,
+			-10232, -9360, -8576, -7856, -7192, -6576, -6000, -5456, -4944, -4464, -4008, -3576, -3168, -2776, -2400,
+			-2032, -1688, -1360, -1040, -728, 24808, 21904, 19008, 16704, 14984, 13512, 12280, 11192, 10232, 9360,
+			8576, 7856, 7192, 6576, 6000, 5456, 4944, 4464, 4008, 3576, 3168, 2776, 2400, 2032, 1688, 1360, 1040,
+			728, 432, 136, -432, -136 };
+
+	/** Lower band 4 bit inverse quantizer feeding the predictor */
+	static final int[] QM4 = { 0, -20456, -12896, -8968, -6288, -4240, -2584, -1200, 20456, 12896, 8968, 6288, 4240,
+			2584, 1200, 0 };
+	static final int[] RL42 = { 0, 7, 6, 5, 4, 3, 2, 1, 7, 6, 5, 4, 3, 2, 1, 0 };
+	static final int[] WL = { -60, -30, 58, 172, 334, 538, 1198, 3042 };
+
+	/** Higher band quantizer */
+	static final int[] IHN = { 0, 1, 0 };
+	static final int[] IHP = { 0, 3, 2 };
+	static final int[] QM2 = { -7408, -1616, 7408, 1616 };
+	static final int[] RH2 = { 2, 1, 2, 1 };
+	static final int[] WH = { 0, -214, 798 };
+
+	/** Inverse log scale factor table */
+	static final int[] ILB = { 2048, 2093, 2139, 2186, 2233, 2282, 2332, 2383, 2435, 2489, 2543, 2599, 2656, 2714,
+			2774, 2834, 2896, 2960, 3025, 3091, 3158, 3228, 3298, 3371, 3444, 3520, 3597, 3676, 3756, 3838, 3922, 4008 };
+
+	/** Log scale factor limits of the lower and the higher band */
+	static final int NB_MAX_LOW = 18432;
+	static final int NB_MAX_HIGH = 22528;
+
+	private G722() {
+	}
+
+	/**
+	 * Updates the log scale factor of a band.
+	 */
+	static int logScale(int nb, int weight, int max) {
+		int wd = ((nb * 127) >> 7) + weight;
+		if (wd < 0) {
+			return 0;
+		}
+		return wd > max ? max : wd;
+	}
+}
@@ -75,16 +75,26 @@ public class Bits {
 
 	public static byte[] toRealBits(short[] fakebits) {
 		byte[] real = new byte[10];
+		toRealBits(fakebits, real, 0);
+		return real;
+	}
+
+	/**
+	 * Packs the 80 bits of a frame into real[offset..offset + 9].
+	 */
+	public static void toRealBits(short[] fakebits, byte[] real, int offset) {
+		for (int i = 0; i < 10; i++) {
+			real[offset + i] = 0;
+		}
 		for (int q = 0; q < 80; q++) {
 			if (fakebits[q + 2] == LD8KConstants.BIT_1) {
-				int tmp = real[q / 8];
+				int tmp = real[offset + q / 8];
 				int onebit = 1 << (7 - (q % 8));
 				tmp |= onebit;
-				real[q / 8] = (byte) (0xFF & tmp);
+				real[offset + q / 8] = (byte) (0xFF & tmp);
 			}
 
 		}
-		return real;
 	}
 
 	public static short[] fromRealBits(byte[] real) {
@@ -69,6 +69,22 @@ public class Decoder {
 		}
 	}
 
+	/**
+	 * Synthesizes replacements for lost frames with the frame erasure path of the decoder.
+	 *
+	 * @param length
+	 *            number of samples, a multiple of the 10 ms frame
+	 * @return number of samples written
+	 */
+	public int conceal(float[] bufferOut, int length) {
+		int frames = length / LD8KConstants.L_FRAME;
+		for (int i = 0; i < frames; i++) {
+			parm[0] = 1; /* frame erased */
+			System.arraycopy(synthesize(), 0, bufferOut, i * LD8KConstants.L_FRAME, LD8KConstants.L_FRAME);
+		}
+		return frames * LD8KConstants.L_FRAME;
+	}
+
 	/**
 	 * Perform compression.
 	 * 
@@ -92,6 +108,12 @@ public class Decoder {
 			}
 		}
 
+		return synthesize();
+	}
+
+	// Decodes the parameters in parm, parm[0] set for an erased frame
+	private float[] synthesize() {
+
 		/* check parity and put 1 in parm[4] if parity error */
 
 		parm[4] = PParity.check_parity_pitch(parm[3], parm[4]);
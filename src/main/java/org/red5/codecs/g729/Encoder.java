@@ -12,6 +12,8 @@ public class Encoder {
 
 	private int[] prm = new int[LD8KConstants.PRM_SIZE];
 
+	private float[] speech = new float[LD8KConstants.L_FRAME];
+
 	public Encoder() {
 
 		preProc.init_pre_process();
@@ -23,34 +25,40 @@ public class Encoder {
 	// posi��es
 	public void encode(float[] bufferIn, byte[] bufferOut) {
 
+		encode(bufferIn, bufferOut, 0);
+	}
+
+	/**
+	 * Encodes bufferIn 80 samples at a time into bufferOut starting at outOffset, without allocating.
+	 *
+	 * @return number of bytes written
+	 */
+	public int encode(float[] bufferIn, byte[] bufferOut, int outOffset) {
+
 		int inOffset = 0;
-		int outOffset = 0;
 		int steps = bufferIn.length / LD8KConstants.L_FRAME;
 
 		for (int i = 0; i < steps; i++) {
-			byte[] tempBufferOut = new byte[LD8KConstants.L_ENC_FRAME];
-			float[] tempBufferIn = new float[LD8KConstants.L_FRAME];
-
-			// Encode bufferIn
-			System.arraycopy(bufferIn, inOffset, tempBufferIn, 0, LD8KConstants.L_FRAME);
-			tempBufferOut = process(tempBufferIn);
+			// The pre-processing works in place, the input must not change
+			System.arraycopy(bufferIn, inOffset, speech, 0, LD8KConstants.L_FRAME);
+			process(speech);
 
 			// Copy encoded data to bufferOut
-			System.arraycopy(tempBufferOut, 0, bufferOut, outOffset, LD8KConstants.L_ENC_FRAME);
+			Bits.toRealBits(serial, bufferOut, outOffset);
 
 			inOffset += LD8KConstants.L_FRAME;
 			outOffset += LD8KConstants.L_ENC_FRAME;
 		}
+		return steps * LD8KConstants.L_ENC_FRAME;
 	}
 
 	/**
 	 * Perform G729 encoding
 	 * 
 	 * @param input
-	 *            media
-	 * @return compressed media.
+	 *            media, the compressed bits are left in serial.
 	 */
-	private byte[] process(float[] media) {
+	private void process(float[] media) {
 
 		preProc.pre_process(media, LD8KConstants.L_FRAME);
 
@@ -58,6 +66,5 @@ public class Encoder {
 		encoder.coder_ld8k(prm, 0);
 
 		Bits.prm2bits_ld8k(prm, serial);
-		return Bits.toRealBits(serial);
 	}
 }
@@ -8,10 +8,19 @@ import java.util.Properties;
 import org.apache.commons.daemon.Daemon;
 import org.apache.commons.daemon.DaemonContext;
 import org.openmeetings.utils.PropertiesUtils;
+import org.red5.codecs.SIPCodecFactory;
+import org.red5.sip.net.rtcp.RtcpSession;
 import org.red5.sip.net.rtmp.RTMPControlClient;
 import org.red5.sip.net.rtmp.RTMPRoomClient;
+import org.red5.sip.net.rtp.MixerScheduler;
+import org.red5.sip.net.rtp.RTPStreamForMultiplex;
 import org.red5.sip.net.rtp.RTPStreamMultiplexingSender;
+import org.red5.sip.net.rtp.RTPStreamReceiver;
 import org.red5.sip.net.rtp.RTPStreamSender;
+import org.red5.sip.net.rtp.RtpDemultiplexer;
+import org.red5.sip.net.rtp.RtpReactor;
+import org.red5.sip.util.VoiceActivityDetector;
+import org.red5.sip.util.FrameRingBuffer.OverflowPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zoolu.sip.address.NameAddress;
@@ -35,8 +44,23 @@ public class Application implements Daemon {
 		log.info("Creating SIP trasport for room: " + roomId);
 		RTPStreamSender.useASAO = "asao".equals(prop.getProperty("red5.codec"));
 		RTMPRoomClient roomClient = new RTMPRoomClient(host, context, uid, roomId);
+		String aggregation = prop.getProperty("sip.rtmp.aggregation." + roomId);
+		if (aggregation != null) {
+			try {
+				roomClient.setAudioAggregation(Integer.parseInt(aggregation));
+			} catch (NumberFormatException e) {
+				log.error("Can't parse audio aggregation of room " + roomId + ": \"" + aggregation + "\"");
+			}
+		}
 
-		SIPTransport sipTransport = new SIPTransport(roomClient, sipPort++, soundPort++, videoPort++) {
+		// RTP on even ports, the following odd ports are left for RTCP; shared by all rooms with sip.rtp.ports=shared
+		int audioPort = soundPort;
+		int rtpVideoPort = videoPort;
+		if (!RtpDemultiplexer.sharedPorts) {
+			soundPort += 2;
+			videoPort += 2;
+		}
+		SIPTransport sipTransport = new SIPTransport(roomClient, sipPort++, audioPort, rtpVideoPort) {
 			@Override
 			public void onUaRegistrationSuccess(SIPRegisterAgent ra, NameAddress target, NameAddress contact, String result) {
 				log.info("Registered successfully");
@@ -77,9 +101,52 @@ public class Application implements Daemon {
 
 			RTPStreamMultiplexingSender.sampling = RTPStreamMultiplexingSender.SAMPLE_RATE.findByShortName(Integer
 					.parseInt(props.getProperty("red5.codec.rate", "22")));
+			RTPStreamMultiplexingSender.useMediaClock = !"legacy".equals(props.getProperty("red5.mixer.clock"));
+			RTPStreamMultiplexingSender.useScheduler = !"thread".equals(props.getProperty("red5.mixer.scheduler"));
+			RTPStreamMultiplexingSender.silenceSuppression = !"no".equals(props.getProperty("red5.mixer.silence"));
+			RTPStreamMultiplexingSender.overloadGovernor = !"no".equals(props.getProperty("red5.mixer.governor"));
+			RTPStreamReceiver.directForwarding = "direct".equals(props.getProperty("sip.playout"));
+			RTPStreamReceiver.g711Passthrough = !"nellymoser".equals(props.getProperty("sip.rtmp.codec"));
+			RtcpSession.enabled = !"no".equals(props.getProperty("sip.rtcp"));
+			RtcpSession.rtcpMux = !"separate".equals(props.getProperty("sip.rtcp"));
+			RtpDemultiplexer.sharedPorts = "shared".equals(props.getProperty("sip.rtp.ports"));
+			VoiceActivityDetector.enabled = !"no".equals(props.getProperty("sip.vad"));
+			SIPCodecFactory.getInstance().setComfortNoiseEnabled(!"no".equals(props.getProperty("sip.cn")));
+			SIPUserAgentProfile.defaultAudioCodecsPrecedence = props.getProperty("sip.codecs",
+					SIPUserAgentProfile.defaultAudioCodecsPrecedence);
 		} catch (NumberFormatException e) {
 			log.error("Can't parse red5.codec.rate value", e);
 		}
+		try {
+			String overflow = props.getProperty("red5.mixer.overflow");
+			if (overflow != null) {
+				RTPStreamForMultiplex.overflowPolicy = OverflowPolicy.parse(overflow);
+			}
+		} catch (IllegalArgumentException e) {
+			log.error("Can't parse red5.mixer.overflow value", e);
+		}
+		try {
+			MixerScheduler.threads = Integer.parseInt(props.getProperty("red5.mixer.threads", "0"));
+			RTPStreamMultiplexingSender.parallelDecodeThreshold = Integer.parseInt(props.getProperty(
+					"red5.mixer.parallel.threshold", "8"));
+			RTPStreamMultiplexingSender.maxSpeakers = Integer.parseInt(props.getProperty("red5.mixer.speakers", "3"));
+			RTPStreamMultiplexingSender.silenceLevel = Integer.parseInt(props.getProperty("red5.mixer.silence.level",
+					"55"));
+			RTPStreamForMultiplex.minJitterDelay = Integer.parseInt(props.getProperty("red5.mixer.jitter.min", "20"));
+			RTPStreamForMultiplex.maxJitterDelay = Integer.parseInt(props.getProperty("red5.mixer.jitter.max", "400"));
+			RTPStreamMultiplexingSender.hibernateDelay = Integer.parseInt(props.getProperty("red5.media.hibernate",
+					"5000"));
+			RTPStreamReceiver.minJitterDelay = Integer.parseInt(props.getProperty("sip.jitter.min", "20"));
+			RTPStreamReceiver.maxJitterDelay = Integer.parseInt(props.getProperty("sip.jitter.max", "400"));
+			RTMPRoomClient.audioAggregation = Integer.parseInt(props.getProperty("sip.rtmp.aggregation", "0"));
+			RtcpSession.interval = Integer.parseInt(props.getProperty("sip.rtcp.interval", "5000"));
+			RtpReactor.threads = Integer.parseInt(props.getProperty("sip.rtp.threads", "0"));
+			VoiceActivityDetector.threshold = Integer.parseInt(props.getProperty("sip.vad.threshold", "9"));
+			VoiceActivityDetector.hangover = Integer.parseInt(props.getProperty("sip.vad.hangover", "300"));
+		} catch (NumberFormatException e) {
+			log.error("Can't parse mixer threads, parallel threshold, speakers, silence level, jitter delay, hibernate, aggregation, RTCP interval, RTP threads or VAD value",
+					e);
+		}
 
 	}
 
@@ -4,7 +4,18 @@ import java.io.IOException;
 
 public interface IMediaReceiver {
 
-	void pushAudio(byte[] audio, long ts, int codec) throws IOException;
+	/**
+	 * Sends a frame of SIP audio to RTMP.
+	 *
+	 * @param voice
+	 *            whether the frame is speech, silent frames are not sent
+	 */
+	void pushAudio(byte[] audio, long ts, int codec, boolean voice) throws IOException;
+
+	/**
+	 * Sends audio held back by {@link #pushAudio(byte[], long, int, boolean)} for aggregation.
+	 */
+	void flushAudio() throws IOException;
 
 	void pushVideo(byte[] video, long ts) throws IOException;
 	
@@ -4,6 +4,11 @@ public interface IMediaStream {
 
 	void send(long timestamp, byte[] asaoBuffer, int offset, int num);
 
+	/**
+	 * Sets the sample rate of the audio passed to {@link #send(long, byte[], int, int)} from now on [Hz].
+	 */
+	void setSampleRate(int sampleRate);
+
 	void stop();
 	
 }
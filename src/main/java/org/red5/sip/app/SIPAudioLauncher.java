@@ -1,10 +1,17 @@
 package org.red5.sip.app;
 
+import java.io.IOException;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 
 import org.red5.codecs.SIPCodec;
+import org.red5.sip.net.rtcp.RtcpSession;
 import org.red5.sip.net.rtp.RTPStreamMultiplexingSender;
 import org.red5.sip.net.rtp.RTPStreamReceiver;
+import org.red5.sip.net.rtp.RtpDemultiplexer;
+import org.red5.sip.net.rtp.RtpReactor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,17 +21,53 @@ public class SIPAudioLauncher implements MediaLauncher {
 
 	protected static Logger log = LoggerFactory.getLogger(SIPAudioLauncher.class);
 
+	DatagramChannel channel = null;
+
+	// Whether the channel is the port shared by all calls, which stays open
+	boolean sharedPort = false;
+
 	DatagramSocket socket = null;
 
 	public IMediaSender sender = null;
 
 	public RTPStreamReceiver receiver = null;
 
+	RtcpSession rtcpSession = null;
+
 	public SIPAudioLauncher(SIPCodec sipCodec, int localPort, String remoteAddr, int remotePort,
 			IMediaReceiver mediaReceiver) {
+		this(sipCodec, localPort, remoteAddr, remotePort, mediaReceiver, false);
+	}
+
+	public SIPAudioLauncher(SIPCodec sipCodec, int localPort, String remoteAddr, int remotePort,
+			IMediaReceiver mediaReceiver, boolean comfortNoise) {
+		this(sipCodec, localPort, remoteAddr, remotePort, mediaReceiver, comfortNoise, false, remotePort + 1,
+				"red5sip-" + localPort);
+	}
+
+	/**
+	 * @param localPort
+	 *            RTP port of the call, or the port shared by all calls with {@link RtpDemultiplexer#sharedPorts}
+	 * @param rtcpMux
+	 *            whether RTCP shares the RTP socket, otherwise it uses the local port + 1
+	 * @param remoteRtcpPort
+	 *            port RTCP is sent to without rtcp-mux
+	 * @param cname
+	 *            RTCP canonical name of the call
+	 */
+	public SIPAudioLauncher(SIPCodec sipCodec, int localPort, String remoteAddr, int remotePort,
+			IMediaReceiver mediaReceiver, boolean comfortNoise, boolean rtcpMux, int remoteRtcpPort, String cname) {
 
 		try {
-			socket = new DatagramSocket(localPort);
+			RtpDemultiplexer demultiplexer = null;
+			if (RtpDemultiplexer.sharedPorts) {
+				demultiplexer = RtpDemultiplexer.getInstance(localPort);
+				channel = demultiplexer.getChannel();
+				sharedPort = true;
+			} else {
+				channel = RtpReactor.openChannel(localPort);
+			}
+			socket = channel.socket();
 
 			printLog("SIPAudioLauncher", "New audio sender to " + remoteAddr + ":" + remotePort + ".");
 			printLog("SIPAudioLauncher", "sender configs: payloadType = [" + sipCodec.getCodecId()
@@ -32,11 +75,37 @@ public class SIPAudioLauncher implements MediaLauncher {
 
 			// sender = new RTPStreamSender( mediaReceiver, false,
 			// sipCodec, socket, remoteAddr, remotePort );
-			sender = new RTPStreamMultiplexingSender(mediaReceiver, false, sipCodec, socket, remoteAddr, remotePort);
+			RTPStreamMultiplexingSender multiplexingSender = new RTPStreamMultiplexingSender(mediaReceiver, false,
+					sipCodec, socket, remoteAddr, remotePort);
+			multiplexingSender.setComfortNoise(comfortNoise);
+			sender = multiplexingSender;
 
 			printLog("SIPAudioLauncher", "New audio receiver on " + localPort + ".");
 
-			receiver = new RTPStreamReceiver(sipCodec, mediaReceiver, socket);
+			if (demultiplexer != null) {
+				receiver = new RTPStreamReceiver(sipCodec, mediaReceiver, demultiplexer,
+						new InetSocketAddress(remoteAddr, remotePort));
+			} else {
+				receiver = new RTPStreamReceiver(sipCodec, mediaReceiver, channel);
+			}
+
+			if (RtcpSession.enabled && demultiplexer != null && !rtcpMux) {
+				RtpDemultiplexer rtcpDemultiplexer = getRtcpDemultiplexer(localPort + 1);
+				if (rtcpDemultiplexer != null) {
+					rtcpSession = new RtcpSession("audio", rtcpDemultiplexer, InetAddress.getByName(remoteAddr),
+							remoteRtcpPort, multiplexingSender.getStatistics(), receiver.getStatistics(), cname);
+				}
+			} else if (RtcpSession.enabled) {
+				DatagramChannel rtcpChannel = rtcpMux ? channel : openRtcpChannel(localPort + 1);
+				if (rtcpChannel != null) {
+					rtcpSession = new RtcpSession("audio", rtcpChannel, !rtcpMux, InetAddress.getByName(remoteAddr),
+							rtcpMux ? remotePort : remoteRtcpPort, multiplexingSender.getStatistics(),
+							receiver.getStatistics(), cname);
+					if (rtcpMux) {
+						receiver.setRtcpSession(rtcpSession);
+					}
+				}
+			}
 		} catch (Exception e) {
 			printLog("SIPAudioLauncher", "Exception " + e);
 			log.error("Exception", e);
@@ -59,6 +128,10 @@ public class SIPAudioLauncher implements MediaLauncher {
 			receiver.start();
 		}
 
+		if (rtcpSession != null) {
+			rtcpSession.start();
+		}
+
 		return true;
 	}
 
@@ -67,6 +140,13 @@ public class SIPAudioLauncher implements MediaLauncher {
 
 		printLog("stopMedia", "Halting sip audio...");
 
+		if (rtcpSession != null) {
+			// BYE while the channel is open
+			rtcpSession.halt();
+			printLog("stopMedia", "RTCP halted, " + rtcpSession + ".");
+			rtcpSession = null;
+		}
+
 		if (sender != null) {
 			sender.halt();
 			sender = null;
@@ -74,22 +154,47 @@ public class SIPAudioLauncher implements MediaLauncher {
 		}
 
 		if (receiver != null) {
+			// Returns when the reactor released the channel
 			receiver.halt();
 			receiver = null;
 			printLog("stopMedia", "Receiver halted.");
 		}
 
-		// take into account the resilience of RtpStreamSender
-		// (NOTE: it does not take into account the resilience of
-		// RtpStreamReceiver; this can cause SocketException)
-		try {
-			Thread.sleep(RTPStreamReceiver.SO_TIMEOUT);
-		} catch (Exception e) {
+		if (!sharedPort) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.debug("Error closing channel", e);
+			}
 		}
-		socket.close();
 		return true;
 	}
 
+	/**
+	 * @return RTCP of the audio session, null when disabled
+	 */
+	public RtcpSession getRtcpSession() {
+		return rtcpSession;
+	}
+
+	static DatagramChannel openRtcpChannel(int port) {
+		try {
+			return RtpReactor.openChannel(port);
+		} catch (IOException e) {
+			log.warn("RTCP port {} not available, RTCP disabled for the session", port, e);
+			return null;
+		}
+	}
+
+	static RtpDemultiplexer getRtcpDemultiplexer(int port) {
+		try {
+			return RtpDemultiplexer.getInstance(port);
+		} catch (IOException e) {
+			log.warn("RTCP port {} not available, RTCP disabled for the session", port, e);
+			return null;
+		}
+	}
+
 	private static void printLog(String method, String message) {
 		log.debug("SipAudioLauncher - " + method + " -> " + message);
 	}
@@ -1,6 +1,7 @@
 package org.red5.sip.app;
 
 import java.util.Enumeration;
+import java.util.UUID;
 import java.util.Vector;
 
 import org.red5.codecs.SIPCodec;
@@ -51,6 +52,9 @@ public class SIPUserAgent extends CallListenerAdapter {
 	/** Local sdp */
 	protected String localSession = null;
 
+	/** Whether comfort noise was negotiated for audio */
+	protected boolean comfortNoise = false;
+
 	/** SIPUserAgent listener */
 	protected SIPUserAgentListener listener = null;
 
@@ -388,6 +392,10 @@ public class SIPUserAgent extends CallListenerAdapter {
 
 		int remoteAudioPort = 0;
 		int remoteVideoPort = 0;
+		boolean audioRtcpMux = false;
+		boolean videoRtcpMux = false;
+		int remoteAudioRtcpPort = 0;
+		int remoteVideoRtcpPort = 0;
 
 		for (Enumeration<MediaDescriptor> e = remoteSdp.getMediaDescriptors().elements(); e.hasMoreElements();) {
 
@@ -396,16 +404,27 @@ public class SIPUserAgent extends CallListenerAdapter {
 
 			if (media.getMedia().equals("audio")) {
 				remoteAudioPort = media.getPort();
+				audioRtcpMux = SdpUtils.isRtcpMuxNegotiated(descriptor);
+				remoteAudioRtcpPort = SdpUtils.getRtcpPort(descriptor);
 			}
 
 			if (media.getMedia().equals("video")) {
 				remoteVideoPort = media.getPort();
+				videoRtcpMux = SdpUtils.isRtcpMuxNegotiated(descriptor);
+				remoteVideoRtcpPort = SdpUtils.getRtcpPort(descriptor);
 			}
 		}
 
 		log.debug("launchMediaApplication:: remoteAudioPort = " + remoteAudioPort + ", remoteVideoPort = "
 				+ remoteVideoPort + ".");
 
+		log.debug("launchMediaApplication:: audio rtcp-mux = " + audioRtcpMux + ", remoteAudioRtcpPort = "
+				+ remoteAudioRtcpPort + ", video rtcp-mux = " + videoRtcpMux + ", remoteVideoRtcpPort = "
+				+ remoteVideoRtcpPort + ".");
+
+		// RTCP canonical name, the same for the audio and video of the call
+		String cname = UUID.randomUUID().toString();
+
 		log.debug("launchMediaApplication:: user_profile.audio = " + userProfile.audio + ", user_profile.video = "
 				+ userProfile.video + ", audio_app = " + audioApp + ", video_app = " + videoApp + ".");
 
@@ -416,7 +435,7 @@ public class SIPUserAgent extends CallListenerAdapter {
 				if (sipAudioCodec != null) {
 
 					audioApp = new SIPAudioLauncher(sipAudioCodec, localAudioPort, remoteMediaAddress, remoteAudioPort,
-							mediaReceiver);
+							mediaReceiver, comfortNoise, audioRtcpMux, remoteAudioRtcpPort, cname);
 				} else {
 					log.debug("launchMediaApplication:: SipCodec for audio not initialized.");
 				}
@@ -431,7 +450,8 @@ public class SIPUserAgent extends CallListenerAdapter {
 			if (videoApp == null) {
 				if (sipVideoCodec != null) {
 					videoApp = new SIPVideoLauncher(localVideoPort, remoteMediaAddress, remoteVideoPort,
-							(SIPTransport) listener, mediaReceiver, sipVideoCodec);
+							(SIPTransport) listener, mediaReceiver, sipVideoCodec, videoRtcpMux, remoteVideoRtcpPort,
+							cname);
 				} else {
 					log.debug("launchMediaApplication:: SipCodec for video not initialized.");
 				}
@@ -501,6 +521,7 @@ public class SIPUserAgent extends CallListenerAdapter {
 			// After we can create the correct audio and video codecs considering
 			// audio and video negotiation made above.
 			sipAudioCodec = SdpUtils.getNegotiatedAudioCodec(newSdp);
+			comfortNoise = SdpUtils.isComfortNoiseNegotiated(newSdp);
 			sipVideoCodec = SdpUtils.getNegotiatedVideoCodec(newSdp);
 
 			// Now we complete the SDP negotiation informing the selected
@@ -593,6 +614,7 @@ public class SIPUserAgent extends CallListenerAdapter {
 		// After we can create the correct audio and video codecs considering
 		// audio and video negotiation made above.
 		sipAudioCodec = SdpUtils.getNegotiatedAudioCodec(newSdp);
+		comfortNoise = SdpUtils.isComfortNoiseNegotiated(newSdp);
 		sipVideoCodec = SdpUtils.getNegotiatedVideoCodec(newSdp);
 
 		// Now we complete the SDP negotiation informing the selected
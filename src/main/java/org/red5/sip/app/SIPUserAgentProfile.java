@@ -158,7 +158,10 @@ public class SIPUserAgentProfile {
 	/** VIC command-line executable */
 	public String binVIC = "vic";
 
-	public String audioCodecsPrecedence = "8;18;0;111";
+	/** Audio payload types offered in order of preference, separated by semicolons */
+	public static String defaultAudioCodecsPrecedence = "8;18;0;111;9";
+
+	public String audioCodecsPrecedence = defaultAudioCodecsPrecedence;
 
 	// public String audioCodecsPrecedence = "";
 
@@ -54,6 +54,20 @@ public class SIPVideoConverter {
 		fuaStartedAndNotFinished = false;
 	}
 
+	/**
+	 * @return number of received packets kept until their frame is complete, the most recently received ones
+	 */
+	public int getQueuedPacketCount() {
+		return packetsQueue.size();
+	}
+
+	/**
+	 * @return the most recently received packet kept until its frame is complete, null if none
+	 */
+	public RtpPacket getLastQueuedPacket() {
+		return packetsQueue.isEmpty() ? null : packetsQueue.get(packetsQueue.size() - 1).packet;
+	}
+
 	public List<RTMPPacketInfo> rtp2rtmp(RtpPacket packet, SIPCodec codec) {
 		switch (codec.getCodecId()) {
 			case 35:
@@ -277,9 +291,10 @@ public class SIPVideoConverter {
 						// second byte: 0x01 for picture data
 						newdata = new ByteArrayBuilder(new byte[]{(byte) (q.nalType == 5? 0x17: 0x27), 1, 0, 0, 0});
 					}
-					length = q.packet.getPayload().length;
+					byte[] nal = q.packet.getPayload();
+					length = nal.length;
 					newdata.putArray((byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length);
-					newdata.putArray(q.packet.getPayload());
+					newdata.putArray(nal);
 					break;
 				case 24:
 					payload = Arrays.copyOfRange(payload, 1, payload.length);
@@ -303,8 +318,9 @@ public class SIPVideoConverter {
 					}
 					break;
 				case 28:
-					boolean start = (q.packet.getPayload()[1] & 0x80) == 0x80;
-					boolean finish = (q.packet.getPayload()[1] & 0x40) == 0x40;
+					byte[] fua = q.packet.getPayload();
+					boolean start = (fua[1] & 0x80) == 0x80;
+					boolean finish = (fua[1] & 0x40) == 0x40;
 					if (start && finish) {
 						log.warn("Packets with nal unit type 28 must not have start and finish bits together");
 						continue;
@@ -317,13 +333,13 @@ public class SIPVideoConverter {
 						continue;
 					}
 					if (newdata == null) {
-						nalType = q.packet.getPayload()[1] & 0x1f;
-						realNri = q.packet.getPayload()[0] & 0x60;
+						nalType = fua[1] & 0x1f;
+						realNri = fua[0] & 0x60;
 						// first byte: 0x17 for intra-frame, 0x27 for non-intra frame
 						// second byte: 0x01 for picture data
 						newdata = new ByteArrayBuilder(new byte[]{(byte) (nalType == 5? 0x17: 0x27), 1, 0, 0, 0});
 					}
-					pendingData.add(new ByteArrayBuilder(Arrays.copyOfRange(q.packet.getPayload(), 2, q.packet.getPayload().length)));
+					pendingData.add(new ByteArrayBuilder(Arrays.copyOfRange(fua, 2, fua.length)));
 					if (finish) {
 						ByteArrayBuilder remaining = new ByteArrayBuilder((byte) (nalType | realNri));
 						for (ByteArrayBuilder pd: pendingData) {
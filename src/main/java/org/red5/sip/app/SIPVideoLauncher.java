@@ -1,29 +1,81 @@
 package org.red5.sip.app;
 
-import java.net.DatagramSocket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 
 import local.ua.MediaLauncher;
 
 import org.red5.codecs.SIPCodec;
+import org.red5.sip.net.rtcp.RtcpSession;
 import org.red5.sip.net.rtp.RTPStreamVideoReceiver;
 import org.red5.sip.net.rtp.RTPStreamVideoSender;
+import org.red5.sip.net.rtp.RtpDemultiplexer;
+import org.red5.sip.net.rtp.RtpReactor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SIPVideoLauncher implements MediaLauncher {
 
 	protected static Logger log = LoggerFactory.getLogger(SIPVideoLauncher.class);
-	protected DatagramSocket socket;
+	protected DatagramChannel channel;
+	// Whether the channel is the port shared by all calls, which stays open
+	protected boolean sharedPort = false;
 	protected RTPStreamVideoReceiver receiver;
 	protected RTPStreamVideoSender sender;
+	protected RtcpSession rtcpSession;
 
 	public SIPVideoLauncher(int localPort, String remoteAddr, int remotePort, SIPTransport sipTransport,
 			IMediaReceiver mediaReceiver, SIPCodec codec) {
+		this(localPort, remoteAddr, remotePort, sipTransport, mediaReceiver, codec, false, remotePort + 1,
+				"red5sip-" + localPort);
+	}
+
+	/**
+	 * @param localPort
+	 *            RTP port of the call, or the port shared by all calls with {@link RtpDemultiplexer#sharedPorts}
+	 * @param rtcpMux
+	 *            whether RTCP shares the RTP socket, otherwise it uses the local port + 1
+	 * @param remoteRtcpPort
+	 *            port RTCP is sent to without rtcp-mux
+	 * @param cname
+	 *            RTCP canonical name of the call
+	 */
+	public SIPVideoLauncher(int localPort, String remoteAddr, int remotePort, SIPTransport sipTransport,
+			IMediaReceiver mediaReceiver, SIPCodec codec, boolean rtcpMux, int remoteRtcpPort, String cname) {
 		try {
-			socket = new DatagramSocket(localPort);
-			receiver = new RTPStreamVideoReceiver(sipTransport, mediaReceiver, codec, socket);
-			sender = new RTPStreamVideoSender(sipTransport, mediaReceiver, codec, socket, remoteAddr, remotePort);
+			RtpDemultiplexer demultiplexer = null;
+			if (RtpDemultiplexer.sharedPorts) {
+				demultiplexer = RtpDemultiplexer.getInstance(localPort);
+				channel = demultiplexer.getChannel();
+				sharedPort = true;
+				receiver = new RTPStreamVideoReceiver(sipTransport, mediaReceiver, codec, demultiplexer,
+						new InetSocketAddress(remoteAddr, remotePort));
+			} else {
+				channel = RtpReactor.openChannel(localPort);
+				receiver = new RTPStreamVideoReceiver(sipTransport, mediaReceiver, codec, channel);
+			}
+			sender = new RTPStreamVideoSender(sipTransport, mediaReceiver, codec, channel.socket(), remoteAddr,
+					remotePort);
 			mediaReceiver.setVideoSender(sender);
+			if (RtcpSession.enabled && demultiplexer != null && !rtcpMux) {
+				RtpDemultiplexer rtcpDemultiplexer = SIPAudioLauncher.getRtcpDemultiplexer(localPort + 1);
+				if (rtcpDemultiplexer != null) {
+					rtcpSession = new RtcpSession("video", rtcpDemultiplexer, InetAddress.getByName(remoteAddr),
+							remoteRtcpPort, sender.getStatistics(), receiver.getStatistics(), cname);
+				}
+			} else if (RtcpSession.enabled) {
+				DatagramChannel rtcpChannel = rtcpMux ? channel : SIPAudioLauncher.openRtcpChannel(localPort + 1);
+				if (rtcpChannel != null) {
+					rtcpSession = new RtcpSession("video", rtcpChannel, !rtcpMux, InetAddress.getByName(remoteAddr),
+							rtcpMux ? remotePort : remoteRtcpPort, sender.getStatistics(), receiver.getStatistics(),
+							cname);
+					if (rtcpMux) {
+						receiver.setRtcpSession(rtcpSession);
+					}
+				}
+			}
 		} catch (Exception e) {
 			log.error("", e);
 		}
@@ -34,16 +86,33 @@ public class SIPVideoLauncher implements MediaLauncher {
 		log.debug("startMedia()");
 		receiver.start();
 		sender.start();
+		if (rtcpSession != null) {
+			rtcpSession.start();
+		}
 		return true;
 	}
 
 	@Override
 	public boolean stopMedia() {
 		log.debug("stopMedia()");
-		receiver.interrupt();
+		if (rtcpSession != null) {
+			rtcpSession.halt();
+			log.debug("RTCP halted, {}", rtcpSession);
+			rtcpSession = null;
+		}
+		receiver.halt();
 		sender.halt();
-		socket.close();
+		if (!sharedPort) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.debug("Error closing channel", e);
+			}
+		}
 		return false;
 	}
 
+	public RtcpSession getRtcpSession() {
+		return rtcpSession;
+	}
 }
@@ -0,0 +1,439 @@
+package org.red5.sip.net.rtcp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.red5.sip.net.rtp.RtpDemultiplexer;
+import org.red5.sip.net.rtp.RtpReactor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * RTCP of one RTP session, RFC 3550.
+ * <p>
+ * Sends a compound SR or RR with a CNAME every reporting interval and a BYE when halted. The report blocks describe
+ * the received source from the counters of a {@link RtpReceiverStatistics}, the sender info comes from a
+ * {@link RtpSenderStatistics}. Received reports yield the loss and jitter the remote party sees and the round trip
+ * time. RTCP uses its own channel, usually on the RTP port + 1, read by the {@link RtpReactor}, or shares the RTP
+ * channel when rtcp-mux (RFC 5761) was negotiated; the RTP receiver then passes the RTCP packets to
+ * {@link #received(byte[], int)}. The reports of all sessions are sent by one timer thread.
+ */
+public class RtcpSession implements RtpReactor.Handler, RtpDemultiplexer.Receiver {
+	protected static Logger log = LoggerFactory.getLogger(RtcpSession.class);
+
+	/** Whether RTCP is sent and received */
+	public static boolean enabled = true;
+
+	/** Whether rtcp-mux is offered and used when the remote party accepts it */
+	public static boolean rtcpMux = true;
+
+	/** Average reporting interval [milliseconds], RFC 3550 recommends at least 5 s */
+	public static int interval = 5000;
+
+	/** SDP attribute of RTCP multiplexed with RTP, RFC 5761 */
+	public static final String ATTRIBUTE_RTCP_MUX = "rtcp-mux";
+	/** SDP attribute of the RTCP port, RFC 3605 */
+	public static final String ATTRIBUTE_RTCP = "rtcp";
+
+	private static final int SR = 200;
+	private static final int RR = 201;
+	private static final int SDES = 202;
+	private static final int BYE = 203;
+	private static final int SDES_CNAME = 1;
+	private static final int REPORT_BLOCK_SIZE = 24;
+	private static final int MAX_PACKET_SIZE = 1500;
+	// Seconds from 1900, the NTP epoch, to 1970
+	private static final long NTP_EPOCH_OFFSET = 2208988800L;
+
+	private static ScheduledExecutorService timer = null;
+
+	private final String name;
+	private final DatagramChannel channel;
+	private final boolean ownChannel;
+	// Shared RTCP port the session is received on, null otherwise
+	private RtpDemultiplexer demultiplexer = null;
+	private final InetSocketAddress remote;
+	private final RtpSenderStatistics sender;
+	private final RtpReceiverStatistics receiver;
+	private final byte[] cname;
+
+	private final byte[] sendBuffer = new byte[MAX_PACKET_SIZE];
+	private final ByteBuffer sendView = ByteBuffer.wrap(sendBuffer);
+	// Read by the reactor worker from the own channel
+	private final ByteBuffer receiveBuffer;
+	private volatile boolean running = false;
+	private ScheduledFuture<?> nextReport = null;
+	// Sender packet count at the last two reports, the session is a sender while it changes
+	private long packetsAtReport = 0;
+	private boolean sentBeforeReport = false;
+
+	// Last SR of the remote party: middle 32 bits of its NTP timestamp and when it arrived [nanoseconds]
+	private volatile long lastSr = 0;
+	private volatile long lastSrArrival = 0;
+	private volatile long lastReceived = 0;
+
+	// What the remote party reports about our packets
+	private volatile int remoteFractionLost = 0;
+	private volatile long remoteCumulativeLost = 0;
+	private volatile long remoteJitter = 0;
+	private volatile long roundTripTime = -1;
+	private volatile long reportsSent = 0;
+	private volatile long reportsReceived = 0;
+
+	/**
+	 * Constructs a RtcpSession.
+	 *
+	 * @param name
+	 *            media of the session, for the logs
+	 * @param channel
+	 *            RTCP channel, or the RTP channel with rtcp-mux
+	 * @param ownChannel
+	 *            whether the channel is used for RTCP only, it is then read and closed by this session
+	 * @param remoteAddress
+	 *            address RTCP is sent to
+	 * @param remotePort
+	 *            port RTCP is sent to, the RTP port with rtcp-mux
+	 * @param sender
+	 *            counters of the RTP sender, its SSRC identifies this endpoint in the session
+	 * @param receiver
+	 *            statistics of the received RTP
+	 * @param cname
+	 *            canonical name of this endpoint, the same for all sessions of a call
+	 */
+	public RtcpSession(String name, DatagramChannel channel, boolean ownChannel, InetAddress remoteAddress,
+			int remotePort, RtpSenderStatistics sender, RtpReceiverStatistics receiver, String cname) {
+		this.name = "RTCP " + name + " " + remoteAddress.getHostAddress() + ":" + remotePort;
+		this.channel = channel;
+		this.ownChannel = ownChannel;
+		this.remote = new InetSocketAddress(remoteAddress, remotePort);
+		this.receiveBuffer = ownChannel ? ByteBuffer.allocate(MAX_PACKET_SIZE) : null;
+		this.sender = sender;
+		this.receiver = receiver;
+		this.cname = cname.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A session receiving on the RTCP port shared by all calls.
+	 */
+	public RtcpSession(String name, RtpDemultiplexer demultiplexer, InetAddress remoteAddress, int remotePort,
+			RtpSenderStatistics sender, RtpReceiverStatistics receiver, String cname) {
+		this(name, demultiplexer.getChannel(), false, remoteAddress, remotePort, sender, receiver, cname);
+		this.demultiplexer = demultiplexer;
+	}
+
+	/**
+	 * Whether a datagram received on a RTP socket is RTCP, by the packet type range reserved in RFC 5761.
+	 */
+	public static boolean isRtcp(byte[] packet, int length) {
+		if (length < 8 || (packet[0] & 0xC0) != 0x80) {
+			return false;
+		}
+		int packetType = packet[1] & 0xFF;
+		return packetType >= 192 && packetType <= 223;
+	}
+
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "RTCP timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return timer;
+	}
+
+	/**
+	 * Starts reporting, the first report is sent after half an interval.
+	 */
+	public synchronized void start() {
+		running = true;
+		if (demultiplexer != null) {
+			demultiplexer.register(remote, this);
+		} else if (ownChannel) {
+			try {
+				RtpReactor.getInstance().register(channel, this);
+			} catch (IOException e) {
+				log.error("{}: can't receive", name, e);
+			}
+		}
+		schedule(nextInterval() / 2);
+		log.debug("{}: started, {}", name,
+				demultiplexer != null ? "shared port" : ownChannel ? "own channel" : "rtcp-mux");
+	}
+
+	private synchronized void schedule(long delay) {
+		if (running) {
+			nextReport = getTimer().schedule(this::report, delay, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void report() {
+		try {
+			sendReport(false);
+		} catch (IOException e) {
+			log.debug("{}: report not sent", name, e);
+		}
+		schedule(nextInterval());
+	}
+
+	// Randomized between 0.5 and 1.5 times the interval, RFC 3550 6.2 [nanoseconds]
+	private static long nextInterval() {
+		return TimeUnit.MILLISECONDS.toNanos(interval) * (500 + ThreadLocalRandom.current().nextInt(1000)) / 1000;
+	}
+
+	/**
+	 * Sends a BYE and stops the session.
+	 */
+	public void halt() {
+		synchronized (this) {
+			if (nextReport != null) {
+				nextReport.cancel(false);
+				nextReport = null;
+			}
+			if (running) {
+				running = false;
+				try {
+					sendReport(true);
+				} catch (IOException e) {
+					log.debug("{}: BYE not sent", name, e);
+				}
+			}
+		}
+		if (demultiplexer != null) {
+			demultiplexer.unregister(this);
+		} else if (ownChannel) {
+			RtpReactor.getInstance().unregister(channel);
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.debug("{}: error closing channel", name, e);
+			}
+		}
+		log.debug("{}: terminated, {}", name, this);
+	}
+
+	/**
+	 * Reads a datagram of the own channel, called by the {@link RtpReactor} worker.
+	 */
+	@Override
+	public boolean receive() throws IOException {
+		receiveBuffer.clear();
+		if (channel.receive(receiveBuffer) == null) {
+			return false;
+		}
+		received(receiveBuffer.array(), receiveBuffer.position());
+		return true;
+	}
+
+	@Override
+	public void idle() {
+		// Reports are timed by the timer
+	}
+
+	private synchronized void sendReport(boolean bye) throws IOException {
+		long now = System.nanoTime();
+		long packets = sender.getPacketCount();
+		boolean sending = packets != packetsAtReport || sentBeforeReport;
+		sentBeforeReport = packets != packetsAtReport;
+		packetsAtReport = packets;
+
+		byte[] b = sendBuffer;
+		int offset = 0;
+		int blocks = 0;
+		int blockOffset = sending ? 28 : 8;
+		long lastSr = this.lastSr;
+		long delaySinceLastSr = lastSr == 0 ? 0 : (now - lastSrArrival) * 65536 / 1000000000L;
+		if (receiver != null && receiver.writeReportBlock(b, blockOffset, lastSr, delaySinceLastSr)) {
+			blocks = 1;
+		}
+		int length = blockOffset + blocks * REPORT_BLOCK_SIZE;
+		b[0] = (byte) (0x80 | blocks);
+		b[1] = (byte) (sending ? SR : RR);
+		setShort(length / 4 - 1, b, 2);
+		setInt(sender.getSsrc(), b, 4);
+		if (sending) {
+			long ntp = ntpTime(System.currentTimeMillis());
+			setInt(ntp >>> 32, b, 8);
+			setInt(ntp, b, 12);
+			setInt(sender.getTimestamp(now), b, 16);
+			setInt(packets, b, 20);
+			setInt(sender.getOctetCount(), b, 24);
+		}
+		offset += length;
+
+		// SDES with the CNAME, null terminated and padded to 32 bits
+		int sdesLength = 8 + 2 + cname.length;
+		sdesLength += 4 - sdesLength % 4;
+		b[offset] = (byte) 0x81;
+		b[offset + 1] = (byte) SDES;
+		setShort(sdesLength / 4 - 1, b, offset + 2);
+		setInt(sender.getSsrc(), b, offset + 4);
+		b[offset + 8] = SDES_CNAME;
+		b[offset + 9] = (byte) cname.length;
+		System.arraycopy(cname, 0, b, offset + 10, cname.length);
+		for (int i = offset + 10 + cname.length; i < offset + sdesLength; i++) {
+			b[i] = 0;
+		}
+		offset += sdesLength;
+
+		if (bye) {
+			b[offset] = (byte) 0x81;
+			b[offset + 1] = (byte) BYE;
+			setShort(1, b, offset + 2);
+			setInt(sender.getSsrc(), b, offset + 4);
+			offset += 8;
+		}
+		sendView.clear();
+		sendView.limit(offset);
+		channel.send(sendView, remote);
+		reportsSent++;
+	}
+
+	/**
+	 * Processes a compound RTCP packet of the remote party.
+	 */
+	@Override
+	public void received(byte[] data, int length) {
+		long now = System.nanoTime();
+		int offset = 0;
+		int end = length;
+		while (offset + 4 <= end) {
+			if ((data[offset] & 0xC0) != 0x80) {
+				log.debug("{}: invalid RTCP version", name);
+				return;
+			}
+			int count = data[offset] & 0x1F;
+			int packetType = data[offset + 1] & 0xFF;
+			int packetLength = (getShort(data, offset + 2) + 1) * 4;
+			if (offset + packetLength > end) {
+				log.debug("{}: truncated RTCP packet {}", name, packetType);
+				return;
+			}
+			switch (packetType) {
+			case SR:
+				if (packetLength >= 28) {
+					lastSr = getInt(data, offset + 10);
+					lastSrArrival = now;
+					reportBlocks(data, offset + 28, count, packetLength - 28);
+				}
+				break;
+			case RR:
+				reportBlocks(data, offset + 8, count, packetLength - 8);
+				break;
+			case BYE:
+				log.debug("{}: BYE received", name);
+				break;
+			default:
+				// SDES, APP and feedback are not used
+				break;
+			}
+			offset += packetLength;
+		}
+		lastReceived = System.currentTimeMillis();
+		reportsReceived++;
+	}
+
+	private void reportBlocks(byte[] data, int offset, int count, int length) {
+		for (int i = 0; i < count && (i + 1) * REPORT_BLOCK_SIZE <= length; i++) {
+			int block = offset + i * REPORT_BLOCK_SIZE;
+			if (getInt(data, block) != sender.getSsrc()) {
+				continue;
+			}
+			remoteFractionLost = data[block + 4] & 0xFF;
+			// 24 bit signed
+			remoteCumulativeLost = (getInt(data, block + 4) << 40) >> 40;
+			remoteJitter = getInt(data, block + 12);
+			long lsr = getInt(data, block + 16);
+			long dlsr = getInt(data, block + 20);
+			if (lsr != 0) {
+				long arrival = ntpTime(System.currentTimeMillis()) >>> 16 & 0xFFFFFFFFL;
+				long rtt = (arrival - lsr - dlsr) & 0xFFFFFFFFL;
+				if (rtt < 0x80000000L) {
+					roundTripTime = rtt * 1000 / 65536;
+				}
+			}
+		}
+	}
+
+	// 64 bit NTP timestamp of a wallclock time
+	private static long ntpTime(long millis) {
+		long seconds = millis / 1000 + NTP_EPOCH_OFFSET;
+		long fraction = (millis % 1000 << 32) / 1000;
+		return seconds << 32 | fraction;
+	}
+
+	static void setInt(long value, byte[] buffer, int offset) {
+		buffer[offset] = (byte) (value >> 24);
+		buffer[offset + 1] = (byte) (value >> 16);
+		buffer[offset + 2] = (byte) (value >> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private static void setShort(int value, byte[] buffer, int offset) {
+		buffer[offset] = (byte) (value >> 8);
+		buffer[offset + 1] = (byte) value;
+	}
+
+	private static long getInt(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFFL) << 24 | (buffer[offset + 1] & 0xFF) << 16 | (buffer[offset + 2] & 0xFF) << 8
+				| buffer[offset + 3] & 0xFF;
+	}
+
+	private static int getShort(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) << 8 | buffer[offset + 1] & 0xFF;
+	}
+
+	public RtpSenderStatistics getSenderStatistics() {
+		return sender;
+	}
+
+	/**
+	 * @return statistics of the received RTP, null if the session only sends
+	 */
+	public RtpReceiverStatistics getReceiverStatistics() {
+		return receiver;
+	}
+
+	/** Returns the fraction of our packets the remote party lost in its last reporting interval [1/256] */
+	public int getRemoteFractionLost() {
+		return remoteFractionLost;
+	}
+
+	/** Returns the number of our packets the remote party lost */
+	public long getRemoteCumulativeLost() {
+		return remoteCumulativeLost;
+	}
+
+	/** Returns the interarrival jitter of our packets at the remote party [milliseconds] */
+	public double getRemoteJitterMillis() {
+		return remoteJitter * 1000.0 / sender.getClockRate();
+	}
+
+	/** Returns the round trip time, -1 until measured [milliseconds] */
+	public long getRoundTripMillis() {
+		return roundTripTime;
+	}
+
+	/** Returns the wallclock time RTCP was received last, 0 if never [milliseconds] */
+	public long getLastReceivedMillis() {
+		return lastReceived;
+	}
+
+	@Override
+	public String toString() {
+		return name + " reports sent: " + reportsSent + ", received: " + reportsReceived + ", reception "
+				+ (receiver != null ? receiver : "-") + ", remote lost: " + remoteCumulativeLost + " ("
+				+ remoteFractionLost + "/256), remote jitter: " + String.format("%.1f", getRemoteJitterMillis())
+				+ "ms, rtt: " + roundTripTime + "ms";
+	}
+}
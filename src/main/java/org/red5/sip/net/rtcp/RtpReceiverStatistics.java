@@ -0,0 +1,163 @@
+package org.red5.sip.net.rtcp;
+
+/**
+ * Reception statistics of the RTP source of a session after RFC 3550 appendix A: extended highest sequence number,
+ * packets lost and interarrival jitter. Updated by the receiving thread for each packet, the report blocks are taken
+ * by the RTCP thread.
+ */
+public class RtpReceiverStatistics {
+	// Sequence jumps restarting the statistics, RFC 3550 A.1
+	private static final int MAX_DROPOUT = 3000;
+	private static final int MAX_MISORDER = 100;
+	private static final int SEQ_MOD = 1 << 16;
+
+	private final int clockRate;
+
+	private boolean synced = false;
+	private long ssrc = 0;
+	private int maxSeq = 0;
+	// Sequence number that confirms a jump, -1 if none is pending
+	private int badSeq = -1;
+	private long strays = 0;
+	private long cycles = 0;
+	private long baseSeq = 0;
+	private long received = 0;
+	private long expectedPrior = 0;
+	private long receivedPrior = 0;
+	// Interarrival jitter [timestamp units]
+	private double jitter = 0;
+	private long transit = 0;
+
+	// Of the last report block
+	private int fractionLost = 0;
+
+	/**
+	 * Constructs a RtpReceiverStatistics.
+	 *
+	 * @param clockRate
+	 *            RTP timestamp rate [Hz]
+	 */
+	public RtpReceiverStatistics(int clockRate) {
+		this.clockRate = clockRate;
+	}
+
+	/**
+	 * Accounts a received RTP packet.
+	 */
+	public synchronized void received(int sequenceNumber, long timestamp, long ssrc) {
+		long arrival = System.nanoTime() / 1000 * clockRate / 1000000;
+		if (!synced || ssrc != this.ssrc) {
+			restart(sequenceNumber, ssrc);
+		} else {
+			int delta = (sequenceNumber - maxSeq) & (SEQ_MOD - 1);
+			if (delta < MAX_DROPOUT) {
+				if (sequenceNumber < maxSeq) {
+					cycles += SEQ_MOD;
+				}
+				maxSeq = sequenceNumber;
+			} else if (delta <= SEQ_MOD - MAX_MISORDER) {
+				if (sequenceNumber != badSeq) {
+					// A stray packet, unless the next one follows it
+					badSeq = (sequenceNumber + 1) & (SEQ_MOD - 1);
+					strays++;
+					return;
+				}
+				// The source restarted its sequence
+				restart(sequenceNumber, ssrc);
+			}
+			// Otherwise a duplicate or reordered packet
+			long transit = arrival - timestamp;
+			long d = Math.abs(transit - this.transit);
+			this.transit = transit;
+			jitter += (d - jitter) / 16;
+		}
+		if (received == 0) {
+			transit = arrival - timestamp;
+		}
+		received++;
+	}
+
+	private void restart(int sequenceNumber, long ssrc) {
+		synced = true;
+		this.ssrc = ssrc;
+		maxSeq = sequenceNumber;
+		badSeq = -1;
+		cycles = 0;
+		baseSeq = sequenceNumber;
+		received = 0;
+		expectedPrior = 0;
+		receivedPrior = 0;
+		jitter = 0;
+	}
+
+	/**
+	 * Writes the report block of the source for a RR or SR and starts the next reporting interval.
+	 *
+	 * @param lastSr
+	 *            middle 32 bits of the NTP timestamp of the last SR received from the source, 0 if none
+	 * @param delaySinceLastSr
+	 *            time since that SR was received [1/65536 seconds]
+	 * @return false when no RTP was received yet, nothing is written
+	 */
+	public synchronized boolean writeReportBlock(byte[] buffer, int offset, long lastSr, long delaySinceLastSr) {
+		if (!synced) {
+			return false;
+		}
+		long expected = getExtendedHighestSequenceNumber() - baseSeq + 1;
+		long lost = Math.max(-0x800000, Math.min(0x7FFFFF, expected - received));
+		long expectedInterval = expected - expectedPrior;
+		long receivedInterval = received - receivedPrior;
+		expectedPrior = expected;
+		receivedPrior = received;
+		long lostInterval = expectedInterval - receivedInterval;
+		fractionLost = expectedInterval == 0 || lostInterval <= 0 ? 0 : (int) ((lostInterval << 8) / expectedInterval);
+
+		RtcpSession.setInt(ssrc, buffer, offset);
+		RtcpSession.setInt((fractionLost << 24) | (lost & 0xFFFFFF), buffer, offset + 4);
+		RtcpSession.setInt(getExtendedHighestSequenceNumber(), buffer, offset + 8);
+		RtcpSession.setInt((long) jitter, buffer, offset + 12);
+		RtcpSession.setInt(lastSr, buffer, offset + 16);
+		RtcpSession.setInt(delaySinceLastSr, buffer, offset + 20);
+		return true;
+	}
+
+	/** Returns the SSRC of the source, 0 before RTP was received */
+	public synchronized long getSsrc() {
+		return ssrc;
+	}
+
+	public synchronized long getExtendedHighestSequenceNumber() {
+		return cycles + maxSeq;
+	}
+
+	/** Returns the number of RTP packets received */
+	public synchronized long getReceivedCount() {
+		return received;
+	}
+
+	/** Returns the number of packets ignored as far off the sequence, without a following one */
+	public synchronized long getStrayCount() {
+		return strays;
+	}
+
+	/** Returns the number of RTP packets expected minus the number received, duplicates count as received */
+	public synchronized long getCumulativeLost() {
+		return synced ? getExtendedHighestSequenceNumber() - baseSeq + 1 - received : 0;
+	}
+
+	/** Returns the fraction of packets lost in the last reporting interval [1/256] */
+	public synchronized int getFractionLost() {
+		return fractionLost;
+	}
+
+	/** Returns the interarrival jitter [milliseconds] */
+	public synchronized double getJitterMillis() {
+		return jitter * 1000 / clockRate;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "received: " + received + ", lost: " + getCumulativeLost() + ", fraction lost: " + fractionLost
+				+ "/256, jitter: " + String.format("%.1f", getJitterMillis()) + "ms";
+	}
+}
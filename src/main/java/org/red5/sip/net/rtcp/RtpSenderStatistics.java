@@ -0,0 +1,72 @@
+package org.red5.sip.net.rtcp;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import local.net.RtpPacket;
+
+/**
+ * Counters of the RTP packets a sender sent with its SSRC, the data of RTCP sender reports. Updated by the sending
+ * thread, read by the RTCP thread.
+ */
+public class RtpSenderStatistics {
+	private final long ssrc;
+	private final int clockRate;
+
+	private volatile long packets = 0;
+	private volatile long octets = 0;
+	// RTP timestamp of the last packet and when it was sent [nanoseconds]
+	private volatile long lastTimestamp = 0;
+	private volatile long lastSent = 0;
+
+	/**
+	 * Constructs a RtpSenderStatistics with a random SSRC.
+	 *
+	 * @param clockRate
+	 *            RTP timestamp rate [Hz]
+	 */
+	public RtpSenderStatistics(int clockRate) {
+		this.ssrc = ThreadLocalRandom.current().nextInt() & 0xFFFFFFFFL;
+		this.clockRate = clockRate;
+	}
+
+	/**
+	 * Accounts a packet after it was sent.
+	 */
+	public void sent(RtpPacket packet) {
+		lastTimestamp = packet.getTimestamp();
+		lastSent = System.nanoTime();
+		octets += packet.getPayloadLength();
+		packets++;
+	}
+
+	/**
+	 * @return SSRC the sender stamps its packets with
+	 */
+	public long getSsrc() {
+		return ssrc;
+	}
+
+	public int getClockRate() {
+		return clockRate;
+	}
+
+	/** Returns the number of RTP packets sent */
+	public long getPacketCount() {
+		return packets;
+	}
+
+	/** Returns the number of payload octets sent */
+	public long getOctetCount() {
+		return octets;
+	}
+
+	/**
+	 * @param nanoTime
+	 *            {@link System#nanoTime()} of the instant
+	 * @return RTP timestamp corresponding to the given instant, extrapolated from the last packet
+	 */
+	public long getTimestamp(long nanoTime) {
+		long elapsed = nanoTime - lastSent;
+		return (lastTimestamp + elapsed * clockRate / 1000000000L) & 0xFFFFFFFFL;
+	}
+}
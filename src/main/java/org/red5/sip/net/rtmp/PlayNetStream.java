@@ -21,6 +21,9 @@ public class PlayNetStream extends AbstractClientStream implements IEventDispatc
 
 	private int audioTs = 0;
 
+	// Sample rate of the last audio packet, 0 until known [Hz]
+	private int audioRate = 0;
+
 	private IMediaSender audioSender;
 
 	private IMediaStream audioStream;
@@ -72,6 +75,33 @@ public class PlayNetStream extends AbstractClientStream implements IEventDispatc
 		}
 	}
 
+	/**
+	 * @param header
+	 *            FLV audio tag header
+	 * @return sample rate of Nellymoser audio [Hz], 0 for other formats and 5.5 kHz
+	 */
+	static int nellymoserRate(byte header) {
+		switch ((header >> 4) & 0x0F) {
+		case 4:
+			return 16000;
+		case 5:
+			return 8000;
+		case 6:
+			switch ((header >> 2) & 0x03) {
+			case 1:
+				return 11025;
+			case 2:
+				return 22050;
+			case 3:
+				return 44100;
+			default:
+				return 0;
+			}
+		default:
+			return 0;
+		}
+	}
+
 	@Override
 	public void dispatchEvent(IEvent event) {
 
@@ -140,6 +170,12 @@ public class PlayNetStream extends AbstractClientStream implements IEventDispatc
 
 			try {
 				if (audioStream != null) {
+					int rate = nellymoserRate(data[0]);
+					if (rate != 0 && rate != audioRate) {
+						log.debug("Stream {} audio rate {} Hz", getStreamId(), rate);
+						audioRate = rate;
+						audioStream.setSampleRate(rate);
+					}
 					audioStream.send(audioTs, data, 1, data.length - 1);
 				}
 			} catch (Exception e) {
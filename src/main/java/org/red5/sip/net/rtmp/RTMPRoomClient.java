@@ -46,6 +46,13 @@ public class RTMPRoomClient extends RTMPClient implements INetStreamEventHandler
 	private static final Logger log = LoggerFactory.getLogger(RTMPRoomClient.class);
 	private static final int MAX_RETRY_NUMBER = 100;
 	private static final int UPDATE_MS = 3000;
+	// Longest audio frame, longer steps between timestamps are gaps [milliseconds]
+	private static final int MAX_AUDIO_FRAME_MS = 100;
+
+	/**
+	 * Duration of SIP audio aggregated into one RTMP message by default [milliseconds], 0 sends every frame on its own
+	 */
+	public static int audioAggregation = 0;
 
 	private Set<String> broadcastIds = new HashSet<>();
 	private Map<String, Double> clientStreamMap = new HashMap<>();
@@ -54,6 +61,14 @@ public class RTMPRoomClient extends RTMPClient implements INetStreamEventHandler
 	private IMediaSender videoSender;
 	private IoBuffer audioBuffer;
 	private IoBuffer videoBuffer;
+	// Frames in audioBuffer not sent yet, guarded by audioLock
+	private final Object audioLock = new Object();
+	private int aggregation = audioAggregation;
+	private int aggregatedFrames = 0;
+	private int aggregatedCodec = 0;
+	private long aggregatedTs = 0;
+	private long lastAudioTs = 0;
+	private long audioFrameDuration = 0;
 	private Double publishStreamId = null;
 	private boolean reconnect = true;
 	private int retryNumber = 0;
@@ -505,52 +520,101 @@ public class RTMPRoomClient extends RTMPClient implements INetStreamEventHandler
 		return videoReceivingEnabled;
 	}
 
+	/**
+	 * Sets the duration of SIP audio aggregated into one RTMP message, trading latency for fewer messages.
+	 *
+	 * @param aggregation
+	 *            [milliseconds], 0 sends every frame on its own
+	 */
+	public void setAudioAggregation(int aggregation) {
+		this.aggregation = aggregation;
+	}
+
+	/**
+	 * Appends a frame to the RTMP audio message being aggregated. The message is sent once it covers the aggregation
+	 * duration, or before a frame of another format or a frame not following the previous one is appended. Silent
+	 * frames are dropped and the changes between speech and silence are notified to the room.
+	 */
 	@Override
-	public void pushAudio(byte[] audio, long ts, int codec) throws IOException {
+	public void pushAudio(byte[] audio, long ts, int codec, boolean voice) throws IOException {
 		if (micMuted) {
 			return;
 		}
 
-		boolean silence = true;
-		for (byte anAudio : audio) {
-			if (anAudio != -1 && anAudio != -2 && anAudio != 126) {
-				silence = false;
-				break;
-			}
-		}
+		boolean silence = !voice;
 		if (silence != this.silence && lastSendActivityMS + 500 < System.currentTimeMillis()) {
 			lastSendActivityMS = System.currentTimeMillis();
 			this.silence = silence;
 			soundActivity();
 		}
 
-		if (silence) {
-			log.trace("Silence...");
-			return;
-		}
+		synchronized (audioLock) {
+			if (silence) {
+				// The end of a talkspurt is not held back
+				flushAudio();
+				log.trace("Silence...");
+				return;
+			}
 
-		if (publishStreamId == null) {
-			return;
-		}
-		if (audioBuffer == null || (audioBuffer.capacity() < audio.length + 1 && !audioBuffer.isAutoExpand())) {
-			audioBuffer = IoBuffer.allocate(1 + audio.length);
-			audioBuffer.setAutoExpand(true);
-		}
+			if (publishStreamId == null) {
+				aggregatedFrames = 0;
+				return;
+			}
+
+			long step = ts - lastAudioTs;
+			lastAudioTs = ts;
+			if (aggregatedFrames > 0 && (codec != aggregatedCodec || Math.abs(step - audioFrameDuration) > 1)) {
+				flushAudio();
+			}
+			if (step > 0 && step <= MAX_AUDIO_FRAME_MS) {
+				audioFrameDuration = step;
+			}
 
-		audioBuffer.clear();
+			if (aggregatedFrames == 0) {
+				if (audioBuffer == null || (audioBuffer.capacity() < audio.length + 1 && !audioBuffer.isAutoExpand())) {
+					audioBuffer = IoBuffer.allocate(1 + audio.length);
+					audioBuffer.setAutoExpand(true);
+				}
 
-		audioBuffer.put((byte) codec); // first byte 2 mono 5500; 6 mono 11025; 22
-		// mono 11025 adpcm 82 nellymoser 8000 178
-		// speex 8000
-		audioBuffer.put(audio);
+				audioBuffer.clear();
 
-		audioBuffer.flip();
+				audioBuffer.put((byte) codec); // first byte 2 mono 5500; 6 mono 11025; 22
+				// mono 11025 adpcm 82 nellymoser 8000 178
+				// speex 8000
+				aggregatedCodec = codec;
+				aggregatedTs = ts;
+			}
+			audioBuffer.put(audio);
+			aggregatedFrames++;
 
-		RTMPMessage message = RTMPMessage.build(new AudioData(audioBuffer), (int)ts);
-		if (log.isTraceEnabled()) {
-			log.trace("+++ " + message.getBody());
+			if (ts + audioFrameDuration - aggregatedTs >= aggregation) {
+				flushAudio();
+			}
+		}
+	}
+
+	/**
+	 * Sends the aggregated audio at once, e.g. at the end of a talkspurt.
+	 */
+	@Override
+	public void flushAudio() throws IOException {
+		synchronized (audioLock) {
+			if (aggregatedFrames == 0) {
+				return;
+			}
+			aggregatedFrames = 0;
+			if (publishStreamId == null) {
+				return;
+			}
+
+			audioBuffer.flip();
+
+			RTMPMessage message = RTMPMessage.build(new AudioData(audioBuffer), (int) aggregatedTs);
+			if (log.isTraceEnabled()) {
+				log.trace("+++ " + message.getBody());
+			}
+			publishStreamData(publishStreamId, message);
 		}
-		publishStreamData(publishStreamId, message);
 	}
 
 	@Override
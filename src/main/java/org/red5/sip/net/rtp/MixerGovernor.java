@@ -0,0 +1,125 @@
+package org.red5.sip.net.rtp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overload governor of a mixing room.
+ * <p>
+ * Each tick reports the time from its deadline until its packet was sent, which includes the wait for the other
+ * rooms of the same tick thread. The smoothed load relative to the packetization budget steps the degradation level
+ * down one stage at a time while the room overruns, and back up once there is headroom again for a longer while, so
+ * quality degrades gradually and does not oscillate. Updated by the mixing thread only, the level can be read from any
+ * thread.
+ */
+public class MixerGovernor {
+	/** Full quality mixing */
+	public static final int FULL_QUALITY = 0;
+	/** Resampling with the short filter */
+	public static final int FAST_RESAMPLING = 1;
+	/** At most {@link #FEWER_SPEAKERS_LIMIT} participants are decoded and mixed */
+	public static final int FEWER_SPEAKERS = 2;
+	/** The mix keeps its gain, the limiter and AGC are not updated */
+	public static final int FIXED_GAIN = 3;
+	/** Only the loudest participant is decoded */
+	public static final int SINGLE_SPEAKER = 4;
+
+	public static final int MAX_LEVEL = SINGLE_SPEAKER;
+
+	private static final int FEWER_SPEAKERS_LIMIT = 2;
+
+	// Smoothed load above which quality is reduced and below which it is restored [fraction of the budget]
+	private static final float HIGH_LOAD = .75f;
+	private static final float LOW_LOAD = .35f;
+	// Weight of a tick in the smoothed load
+	private static final float SMOOTHING = 1 / 16f;
+	// Ticks after a level change before quality is reduced further or restored, about 0.5 s and 5 s at 20 ms
+	private static final int DOWN_HOLD = 25;
+	private static final int UP_HOLD = 250;
+
+	private final float budget;
+	private float load = 0;
+	private int ticksAtLevel = 0;
+	private volatile int level = FULL_QUALITY;
+	private volatile long overruns = 0;
+	private volatile long levelChanges = 0;
+
+	/**
+	 * Constructs a MixerGovernor.
+	 *
+	 * @param budgetMs
+	 *            time available for a tick, the packetization [milliseconds]
+	 */
+	public MixerGovernor(long budgetMs) {
+		if (budgetMs <= 0) {
+			throw new IllegalArgumentException("Invalid tick budget: " + budgetMs);
+		}
+		this.budget = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+	}
+
+	/**
+	 * Accounts a tick and adjusts the degradation level.
+	 *
+	 * @param responseNanos
+	 *            time from the tick deadline until the tick was done [nanoseconds]
+	 * @return the degradation level for the next tick
+	 */
+	public int update(long responseNanos) {
+		float tickLoad = responseNanos / budget;
+		if (tickLoad > 1) {
+			overruns++;
+		}
+		load += (tickLoad - load) * SMOOTHING;
+		ticksAtLevel++;
+		if (load > HIGH_LOAD && level < MAX_LEVEL && ticksAtLevel >= DOWN_HOLD) {
+			setLevel(level + 1);
+		} else if (load < LOW_LOAD && level > FULL_QUALITY && ticksAtLevel >= UP_HOLD) {
+			setLevel(level - 1);
+		}
+		return level;
+	}
+
+	private void setLevel(int level) {
+		this.level = level;
+		ticksAtLevel = 0;
+		levelChanges++;
+	}
+
+	/** Returns the current degradation level, {@link #FULL_QUALITY} to {@link #MAX_LEVEL} */
+	public int getLevel() {
+		return level;
+	}
+
+	/** Whether resampling uses the long filter at the current level */
+	public boolean isHighQualityResampling() {
+		return level < FAST_RESAMPLING;
+	}
+
+	/** Whether the limiter and AGC adapt to the mix at the current level */
+	public boolean isGainControlled() {
+		return level < FIXED_GAIN;
+	}
+
+	/**
+	 * Returns the number of participants mixed at the current level.
+	 *
+	 * @param maxSpeakers
+	 *            configured maximum, 0 for everybody
+	 */
+	public int limitSpeakers(int maxSpeakers) {
+		int limit = level >= SINGLE_SPEAKER ? 1 : level >= FEWER_SPEAKERS ? FEWER_SPEAKERS_LIMIT : 0;
+		if (limit == 0) {
+			return maxSpeakers;
+		}
+		return maxSpeakers <= 0 ? limit : Math.min(maxSpeakers, limit);
+	}
+
+	/** Returns the number of ticks done after their budget */
+	public long getOverrunCount() {
+		return overruns;
+	}
+
+	@Override
+	public String toString() {
+		return "level: " + level + ", overruns: " + overruns + ", level changes: " + levelChanges;
+	}
+}
@@ -0,0 +1,177 @@
+package org.red5.sip.net.rtp;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.red5.sip.util.MediaClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared mixing engine driving all {@link RTPStreamMultiplexingSender} rooms, and the SIP to RTMP playout of
+ * {@link RTPStreamReceiver}, from a small fixed pool of tick threads.
+ * <p>
+ * Every registered room keeps its own {@link MediaClock}. Rooms are assigned to the least loaded worker and their
+ * clocks are phase shifted over {@link #SLOTS} evenly spaced slots of the packetization period, so each worker wakes
+ * up a few times per period and mixes the batch of rooms sharing the due slot.
+ */
+public class MixerScheduler {
+	protected static Logger log = LoggerFactory.getLogger(MixerScheduler.class);
+
+	/** Number of phase slots the packetization period is divided into */
+	public static final int SLOTS = 10;
+
+	/** Number of tick threads, 0 means one per available processor */
+	public static int threads = 0;
+
+	private static MixerScheduler instance = null;
+
+	/**
+	 * Work done once per media clock tick.
+	 */
+	public interface Task {
+		/**
+		 * @return true if a packet was sent
+		 */
+		boolean tick();
+	}
+
+	private final Worker[] workers;
+	private int nextSlot = 0;
+
+	public static synchronized MixerScheduler getInstance() {
+		if (instance == null) {
+			int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+			instance = new MixerScheduler(count);
+		}
+		return instance;
+	}
+
+	private MixerScheduler(int count) {
+		workers = new Worker[count];
+		for (int i = 0; i < count; i++) {
+			workers[i] = new Worker("MixerScheduler worker " + i);
+			workers[i].start();
+		}
+		println("MixerScheduler", "Started " + count + " tick threads");
+	}
+
+	/**
+	 * Registers a room or playout task, its first tick is due within one packetization period.
+	 */
+	public synchronized void register(Task task, MediaClock clock) {
+		Worker worker = workers[0];
+		for (Worker w : workers) {
+			if (w.rooms.size() < worker.rooms.size()) {
+				worker = w;
+			}
+		}
+		long phase = clock.getPeriodNanos() * nextSlot / SLOTS;
+		nextSlot = (nextSlot + 1) % SLOTS;
+		clock.start(System.nanoTime() + phase);
+		worker.rooms.add(new Room(task, clock));
+		LockSupport.unpark(worker);
+		println("register", worker.getName() + " rooms: " + worker.rooms.size() + ", phase: "
+				+ TimeUnit.NANOSECONDS.toMicros(phase) + "us");
+	}
+
+	/**
+	 * Unregisters a room or playout task, returns once a tick in progress has finished. Not to be called holding a
+	 * lock the task takes in its tick, unless from the tick itself.
+	 */
+	public void unregister(Task task) {
+		Room removed = null;
+		synchronized (this) {
+			for (Worker w : workers) {
+				for (Room room : w.rooms) {
+					if (room.task == task) {
+						w.rooms.remove(room);
+						removed = room;
+						println("unregister", w.getName() + " rooms: " + w.rooms.size() + ", clock: " + room.clock);
+						break;
+					}
+				}
+			}
+		}
+		if (removed != null) {
+			// The worker may still hold the room in its snapshot of the list
+			synchronized (removed) {
+				removed.registered = false;
+			}
+		}
+	}
+
+	/**
+	 * @return number of registered rooms and playout tasks
+	 */
+	public int getRoomCount() {
+		int count = 0;
+		for (Worker w : workers) {
+			count += w.rooms.size();
+		}
+		return count;
+	}
+
+	private static class Room {
+		final Task task;
+		final MediaClock clock;
+		// Guarded by the room, cleared when unregistered
+		boolean registered = true;
+
+		Room(Task task, MediaClock clock) {
+			this.task = task;
+			this.clock = clock;
+		}
+	}
+
+	private static class Worker extends Thread {
+		/** Idle wait when no room is registered [nanoseconds] */
+		private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+		final List<Room> rooms = new CopyOnWriteArrayList<>();
+
+		Worker(String name) {
+			super(name);
+			setDaemon(true);
+			setPriority(Thread.MAX_PRIORITY);
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				long now = System.nanoTime();
+				long next = now + IDLE_WAIT;
+				for (Room room : rooms) {
+					MediaClock clock = room.clock;
+					if (clock.getDeadline() - now <= 0) {
+						synchronized (room) {
+							if (!room.registered) {
+								continue;
+							}
+							// Sampled per room so the time spent mixing the rooms before counts in its lateness
+							clock.tick(System.nanoTime());
+							try {
+								room.task.tick();
+							} catch (Exception e) {
+								log.error("Error mixing room", e);
+							}
+						}
+					}
+					if (clock.getDeadline() - next < 0) {
+						next = clock.getDeadline();
+					}
+				}
+				long wait = next - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+				}
+			}
+		}
+	}
+
+	private static void println(String method, String message) {
+		log.debug("MixerScheduler - " + method + " -> " + message);
+	}
+}
@@ -2,11 +2,13 @@ package org.red5.sip.net.rtp;
 
 import static org.red5.sip.net.rtp.RTPStreamSender.RTP_HEADER_SIZE;
 
-import org.red5.codecs.asao.ByteStream;
 import org.red5.sip.app.IMediaStream;
+import org.red5.sip.util.FrameAssembler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.laszlosystems.libresample4j.PolyphaseResampler;
+
 import local.net.RtpPacket;
 
 public class RTPStream implements IMediaStream {
@@ -21,16 +23,14 @@ public class RTPStream implements IMediaStream {
 	private byte[] packetBuffer;
 	private RtpPacket rtpPacket;
 
-	// Temporary buffer with received PCM audio from FlashPlayer.
-	float[] tempBuffer;
-	// Floats remaining on temporary buffer.
-	int tempBufferRemaining = 0;
-	// Encoding buffer used to encode to final codec format;
-	float[] encodingBuffer;
-	// Offset of encoding buffer.
-	int encodingOffset = 0;
-	// Indicates whether the current asao buffer was processed.
-	boolean asao_buffer_processed = false;
+	// Decoded Nellymoser packet
+	private final float[] tempBuffer = new float[RTPStreamSender.NELLYMOSER_DECODED_PACKET_SIZE];
+	private final FrameAssembler frameAssembler;
+	// Conversion of the decoded packets to the codec rate, null when the rates match
+	private PolyphaseResampler resampler = null;
+	private float[] resampledBuffer;
+	// RTP timestamp units per codec frame
+	private final long frameTimestamp;
 
 	public RTPStream(Number streamId, long syncSource, RTPStreamSender sender) {
 		this.syncSource = syncSource;
@@ -38,8 +38,9 @@ public class RTPStream implements IMediaStream {
 		this.packetBuffer = new byte[sender.sipCodec.getOutgoingEncodedFrameSize() + RTPStreamSender.RTP_HEADER_SIZE];
 		this.rtpPacket = new RtpPacket(this.packetBuffer, 0);
 		this.rtpPacket.setPayloadType(sender.sipCodec.getCodecId());
-		this.tempBuffer = new float[RTPStreamSender.NELLYMOSER_DECODED_PACKET_SIZE];
-		this.encodingBuffer = new float[sender.sipCodec.getOutgoingDecodedFrameSize()];
+		this.frameAssembler = new FrameAssembler(sender.sipCodec);
+		this.frameTimestamp = (long) sender.sipCodec.getOutgoingDecodedFrameSize() * sender.sipCodec.getRtpClockRate()
+				/ sender.sipCodec.getSampleRate();
 	}
 
 	@Override
@@ -51,6 +52,16 @@ public class RTPStream implements IMediaStream {
 		}
 	}
 
+	@Override
+	public void setSampleRate(int sampleRate) {
+		if (sampleRate == sender.sipCodec.getSampleRate()) {
+			resampler = null;
+		} else if (resampler == null || resampler.getInputRate() != sampleRate) {
+			resampler = new PolyphaseResampler(true, sampleRate, sender.sipCodec.getSampleRate());
+			resampledBuffer = new float[resampler.getMaxOutputLength(tempBuffer.length)];
+		}
+	}
+
 	public void sendRaw(byte[] asaoInput, int offset, int num) {
 		System.arraycopy(asaoInput, offset, packetBuffer, RTPStreamSender.RTP_HEADER_SIZE, num);
 		rtpPacket.setSscr(syncSource);
@@ -59,95 +70,36 @@ public class RTPStream implements IMediaStream {
 		sender.send(rtpPacket);
 	}
 
+	/**
+	 * Decodes every Nellymoser packet of the message, converts it to the codec rate and sends the complete codec frames.
+	 */
 	public void sendASAO(byte[] asaoBuffer, int offset, int num) {
-		asao_buffer_processed = false;
-
-		if (num > 0) {
-			do {
-				int encodedBytes = fillRtpPacketBuffer(asaoBuffer);
-				if (encodedBytes == 0) {
-					break;
-				}
-				if (encodingOffset == sender.sipCodec.getOutgoingDecodedFrameSize()) {
+		for (int i = 0; i + RTPStreamSender.NELLYMOSER_ENCODED_PACKET_SIZE <= num; i += RTPStreamSender.NELLYMOSER_ENCODED_PACKET_SIZE) {
+			sender.decoderMap = sender.decoder.decode(sender.decoderMap, asaoBuffer, offset + i, tempBuffer, 0);
+
+			float[] pcm = tempBuffer;
+			int length = tempBuffer.length;
+			if (resampler != null) {
+				pcm = resampledBuffer;
+				length = resampler.process(tempBuffer, 0, tempBuffer.length, resampledBuffer, 0);
+			}
+			int decoded = 0;
+			while (decoded < length) {
+				decoded += frameAssembler.push(pcm, decoded, length - decoded);
+				if (frameAssembler.isFrameComplete()) {
 					try {
+						frameAssembler.encode(packetBuffer, RTP_HEADER_SIZE);
 						rtpPacket.setSscr(syncSource);
 						rtpPacket.setTimestamp(timestamp);
 						rtpPacket.setPayloadLength(sender.sipCodec.getOutgoingEncodedFrameSize());
 						sender.send(rtpPacket);
-						timestamp += sender.sipCodec.getOutgoingPacketization();
+						timestamp += frameTimestamp;
 					} catch (Exception e) {
 						log.error("sendASAO: " + sender.sipCodec.getCodecName() + " encoder error.", e);
 					}
-					encodingOffset = 0;
-				}
-			} while (!asao_buffer_processed);
-		}
-	}
-
-	/** Fill the buffer of RtpPacket with necessary data. */
-	private int fillRtpPacketBuffer(byte[] asaoBuffer) {
-
-		int copyingSize = 0;
-		int finalCopySize = 0;
-		byte[] codedBuffer = new byte[sender.sipCodec.getOutgoingEncodedFrameSize()];
-
-		try {
-			if ((tempBufferRemaining + encodingOffset) >= sender.sipCodec.getOutgoingDecodedFrameSize()) {
-
-				copyingSize = encodingBuffer.length - encodingOffset;
-
-				System.arraycopy(tempBuffer, tempBuffer.length - tempBufferRemaining, encodingBuffer, encodingOffset, copyingSize);
-
-				encodingOffset = sender.sipCodec.getOutgoingDecodedFrameSize();
-				tempBufferRemaining -= copyingSize;
-				finalCopySize = sender.sipCodec.getOutgoingDecodedFrameSize();
-
-				// println( "fillRtpPacketBuffer", "Simple copy of " +
-				// copyingSize + " bytes." );
-			} else {
-				if (tempBufferRemaining > 0) {
-					System.arraycopy(tempBuffer, tempBuffer.length - tempBufferRemaining
-							, encodingBuffer, encodingOffset, tempBufferRemaining);
-
-					encodingOffset += tempBufferRemaining;
-					finalCopySize += tempBufferRemaining;
-					tempBufferRemaining = 0;
-				}
-
-				// Decode new asao packet.
-
-				asao_buffer_processed = true;
-
-				ByteStream audioStream = new ByteStream(asaoBuffer, 1, RTPStreamSender.NELLYMOSER_ENCODED_PACKET_SIZE);
-
-				sender.decoderMap = sender.decoder.decode(sender.decoderMap, audioStream.bytes, 1, tempBuffer, 0);
-
-				tempBufferRemaining = tempBuffer.length;
-
-				if ((encodingOffset + tempBufferRemaining) > sender.sipCodec.getOutgoingDecodedFrameSize()) {
-					copyingSize = encodingBuffer.length - encodingOffset;
-				} else {
-					copyingSize = tempBufferRemaining;
-				}
-
-				System.arraycopy(tempBuffer, 0, encodingBuffer, encodingOffset, copyingSize);
-
-				encodingOffset += copyingSize;
-				tempBufferRemaining -= copyingSize;
-				finalCopySize += copyingSize;
-			}
-
-			if (encodingOffset == encodingBuffer.length) {
-				int encodedBytes = sender.sipCodec.pcmToCodec(encodingBuffer, codedBuffer);
-				if (encodedBytes == sender.sipCodec.getOutgoingEncodedFrameSize()) {
-					System.arraycopy(codedBuffer, 0, packetBuffer, RTP_HEADER_SIZE, codedBuffer.length);
 				}
 			}
-		} catch (Exception e) {
-			log.error("Exception", e);
 		}
-
-		return finalCopySize;
 	}
 
 	@Override
@@ -1,74 +1,461 @@
 package org.red5.sip.net.rtp;
 
+import static org.red5.sip.net.rtp.RTPStreamMultiplexingSender.NELLYMOSER_DECODED_PACKET_SIZE;
 import static org.red5.sip.net.rtp.RTPStreamMultiplexingSender.NELLYMOSER_ENCODED_PACKET_SIZE;
-import static org.red5.sip.util.BytesBuffer.READY;
 
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.red5.codecs.asao.Decoder;
 import org.red5.codecs.asao.DecoderMap;
 import org.red5.sip.app.IMediaStream;
-import org.red5.sip.util.BytesBuffer;
+import org.red5.sip.util.FrameRingBuffer;
+import org.red5.sip.util.FrameRingBuffer.OverflowPolicy;
+import org.red5.sip.util.JitterEstimator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.laszlosystems.libresample4j.PolyphaseResampler;
+
 public class RTPStreamForMultiplex implements IMediaStream {
 	protected static Logger log = LoggerFactory.getLogger(RTPStreamForMultiplex.class);
+
+	/** Buffer length [Nellymoser packets] */
+	public static int BUFFER_LENGTH = 200;
+
+	/** What to do when packets arrive faster than they are mixed */
+	public static OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+	/** Bounds of the jitter buffer delay [milliseconds] */
+	public static int minJitterDelay = 20;
+	public static int maxJitterDelay = 400;
+
+	// Jitter buffer delay until the jitter was measured [microseconds]
+	private static final long INITIAL_JITTER_DELAY = 100000;
+	// RTMP messages taken into account by the jitter estimation
+	private static final int JITTER_WINDOW = 128;
+	// Fraction of the arrivals the jitter buffer absorbs
+	private static final double JITTER_PERCENTILE = .95;
+	// Packets played with excess buffering before the delay is reduced by a packet
+	private static final int SHRINK_PACKETS = 50;
+
+	// Resampler filters by input rate, negative for the short filter, shared by the streams
+	private static final ConcurrentMap<Integer, PolyphaseResampler> resamplers = new ConcurrentHashMap<>();
+
+	/** Results of {@link #readPacket(long)} and {@link #readFrame(long, boolean)} */
+	protected static final int NONE = 0;
+	protected static final int PACKET = 1;
+	protected static final int CONCEALED = 2;
+
+	// Timestamp jump after which the stream is aligned again [microseconds]
+	private static final long RESYNC = 1000000;
+	// Missing packets replaced by the attenuated previous one
+	private static final int MAX_CONCEALED = 3;
+	private static final float CONCEAL_ATTENUATION = .5f;
+
 	private Number streamId;
-	private boolean ready = false;
+	private final RTPStreamMultiplexingSender sender;
+	/* Written by the mixer when the buffer runs empty, by the RTMP thread once refilled */
+	private volatile boolean ready = false;
+	private boolean overflowing = false;
 	protected DecoderMap decoderMap = null;
-	private BytesBuffer buffer = new BytesBuffer(NELLYMOSER_ENCODED_PACKET_SIZE, 200) {
-		@Override
-		protected void onBufferOverflow() {
-			super.onBufferOverflow();
-			log.error("Stream {} buffer overflow. Buffer was cleared", streamId);
-		}
+	// Last packet taken by the mixer and the decoded PCM mixed next, at the mixing rate
+	protected final byte[] asaoBuffer = new byte[NELLYMOSER_ENCODED_PACKET_SIZE];
+	protected final float[] decodedBuffer = new float[NELLYMOSER_DECODED_PACKET_SIZE];
+	// Active speaker state, mixer thread only
+	protected float level = Float.NEGATIVE_INFINITY;
+	protected int hangover = 0;
+	protected boolean speaking = false;
+	private final FrameRingBuffer buffer = new FrameRingBuffer(NELLYMOSER_ENCODED_PACKET_SIZE, BUFFER_LENGTH,
+			overflowPolicy);
 
-		@Override
-		protected void onBufferEmpty() {
-			super.onBufferEmpty();
-            /* Not ready only after buffer empty */
-			ready = false;
-			log.error("Stream {} buffer empty.", streamId);
-		}
-	};
+	// Sample rate of the packets, the mixing rate until known [Hz]
+	private volatile int sampleRate = RTPStreamMultiplexingSender.sampling.rate;
+	// Duration of a Nellymoser packet [microseconds]
+	private volatile long frameDuration = frameDuration(sampleRate);
+
+	// Resampling to the mixing rate, mixer thread only. Null while the stream is at the mixing rate.
+	private int resamplerRate = RTPStreamMultiplexingSender.sampling.rate;
+	private PolyphaseResampler resampler = null;
+	private boolean highQuality = true;
+	// Packets taken for the current mix frame and their readPacket results
+	private byte[] packets = null;
+	private int[] packetResults = null;
+	private int packetCount = 0;
+	// Packet decoded last, at the stream rate
+	private final float[] streamBuffer = new float[NELLYMOSER_DECODED_PACKET_SIZE];
+	// Resampled audio not mixed yet
+	private float[] resampled = null;
+	private int resampledLength = 0;
+	// Playout alignment, mixer thread only: playout time = packet timestamp + offset
+	private boolean aligned = false;
+	private long offset = 0;
+	// Whether asaoBuffer holds a packet taken from the buffer which is not due yet
+	private boolean pending = false;
+	private long pendingTimestamp = 0;
+	private boolean decoded = false;
+	private int concealed = 0;
+	protected boolean concealing = false;
+
+	private int excessPackets = 0;
+
+	private final JitterEstimator jitter = new JitterEstimator(JITTER_WINDOW, JITTER_PERCENTILE,
+			minJitterDelay * 1000L, maxJitterDelay * 1000L, INITIAL_JITTER_DELAY);
+	// Duration of the last RTMP message [microseconds]
+	private volatile long messageDuration = 0;
+	// Buffered audio when the last packet was played [microseconds]
+	private volatile long depth = 0;
+
+	private volatile long lateCount = 0;
+	private volatile long concealedCount = 0;
 
-	protected RTPStreamForMultiplex(Number streamId) {
+	protected RTPStreamForMultiplex(Number streamId, RTPStreamMultiplexingSender sender) {
 		this.streamId = streamId;
+		this.sender = sender;
 	}
 
 	public Number getStreamId() {
 		return streamId;
 	}
 
+	private static long frameDuration(int sampleRate) {
+		return NELLYMOSER_DECODED_PACKET_SIZE * 1000000L / sampleRate;
+	}
+
+	/**
+	 * Records the sample rate of the packets sent from now on, parsed from the FLV audio tag header.
+	 */
+	@Override
+	public void setSampleRate(int sampleRate) {
+		if (sampleRate != this.sampleRate) {
+			log.debug("Stream {} sample rate: {} Hz", streamId, sampleRate);
+			frameDuration = frameDuration(sampleRate);
+			this.sampleRate = sampleRate;
+		}
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @param timestamp
+	 *            RTMP timestamp of the first packet [milliseconds]
+	 */
 	public void send(long timestamp, byte[] asaoBuffer, int offset, int num) {
 		log.trace("Stream {} send:: num: {} ready {}", streamId, num, ready);
-		for (int i = 0; i < num; i += NELLYMOSER_ENCODED_PACKET_SIZE) {
-			synchronized (this) {
-				buffer.push(asaoBuffer, offset + i, NELLYMOSER_ENCODED_PACKET_SIZE);
+		long packetTimestamp = timestamp * 1000;
+		jitter.update(packetTimestamp, System.nanoTime() / 1000);
+		messageDuration = num / NELLYMOSER_ENCODED_PACKET_SIZE * frameDuration;
+		for (int i = 0; i + NELLYMOSER_ENCODED_PACKET_SIZE <= num; i += NELLYMOSER_ENCODED_PACKET_SIZE) {
+			boolean stored = buffer.push(asaoBuffer, offset + i, packetTimestamp);
+			if (!stored && !overflowing) {
+				log.warn("Stream {} buffer overflow, policy {}: {}", streamId, buffer.getPolicy(), buffer);
 			}
-			Thread.yield();
+			overflowing = !stored;
+			packetTimestamp += frameDuration;
 		}
-		synchronized (this) {
-			if (!ready && buffer.bufferUsage() > READY) {
-				ready = true;
-			}
+		if (!ready && bufferedDuration() >= getTargetDepth()) {
+			ready = true;
 		}
+		sender.wake();
+	}
+
+	// Audio queued in the buffer [microseconds]
+	private long bufferedDuration() {
+		return buffer.available() * frameDuration;
+	}
+
+	/**
+	 * @return delay the jitter buffer aims for: the jitter percentile plus one RTMP message [microseconds]
+	 */
+	public long getTargetDepth() {
+		return jitter.getTarget() + messageDuration;
+	}
+
+	/**
+	 * @return audio buffered when the last packet was played [microseconds]
+	 */
+	public long getDepth() {
+		return depth;
 	}
 
-	protected synchronized boolean ready() {
+	public JitterEstimator getJitterEstimator() {
+		return jitter;
+	}
+
+	protected boolean ready() {
 		return ready;
 	}
 
-	protected synchronized float bufferUsage() {
-		return buffer.bufferUsage();
+	protected float bufferUsage() {
+		return buffer.usage();
+	}
+
+	/**
+	 * Takes the packets of the next mix frame, see {@link #readPacket(long)}. A stream at the mixing rate takes one
+	 * packet, otherwise as many as the resampled audio lacks for a frame. Mixer thread only.
+	 *
+	 * @param playoutTime
+	 *            room playout time of the mix frame [microseconds]
+	 * @param highQuality
+	 *            whether the stream is resampled with the long filter
+	 * @return {@link #PACKET} when audio is available, {@link #CONCEALED} when only replacements were taken,
+	 *         {@link #NONE} otherwise
+	 */
+	protected int readFrame(long playoutTime, boolean highQuality) {
+		updateResampler(highQuality);
+		if (resampler == null) {
+			return readPacket(playoutTime);
+		}
+		int mixRate = RTPStreamMultiplexingSender.sampling.rate;
+		packetCount = 0;
+		if (resampledLength >= decodedBuffer.length) {
+			// A packet is longer than a frame at the mixing rate
+			return PACKET;
+		}
+		int result = NONE;
+		int length = resampledLength;
+		while (length < decodedBuffer.length && packetCount < packetResults.length) {
+			// The packet plays once the audio resampled before it has been mixed
+			int packet = readPacket(playoutTime + length * 1000000L / mixRate);
+			if (packet == NONE) {
+				break;
+			}
+			if (packet == PACKET) {
+				System.arraycopy(asaoBuffer, 0, packets, packetCount * NELLYMOSER_ENCODED_PACKET_SIZE,
+						NELLYMOSER_ENCODED_PACKET_SIZE);
+				result = PACKET;
+			} else if (result == NONE) {
+				result = CONCEALED;
+			}
+			packetResults[packetCount++] = packet;
+			length = resampledLength + resampler.getOutputLength(packetCount * NELLYMOSER_DECODED_PACKET_SIZE);
+		}
+		if (result == NONE) {
+			resampledLength = 0;
+		}
+		return result;
+	}
+
+	// Follows sample rate changes of the stream and the resampling quality of the mixer
+	private void updateResampler(boolean highQuality) {
+		int rate = sampleRate;
+		if (rate == resamplerRate) {
+			if (resampler != null && highQuality != this.highQuality) {
+				// Switch the filter keeping the resampled audio
+				PolyphaseResampler next = new PolyphaseResampler(filter(rate, highQuality));
+				next.continueFrom(resampler);
+				resampler = next;
+			}
+			this.highQuality = highQuality;
+			return;
+		}
+		resamplerRate = rate;
+		this.highQuality = highQuality;
+		resampledLength = 0;
+		int mixRate = RTPStreamMultiplexingSender.sampling.rate;
+		if (rate == mixRate) {
+			resampler = null;
+			return;
+		}
+		resampler = new PolyphaseResampler(filter(rate, highQuality));
+		int maxPackets = (int) Math.ceil((double) decodedBuffer.length * rate / mixRate
+				/ NELLYMOSER_DECODED_PACKET_SIZE) + 1;
+		packets = new byte[maxPackets * NELLYMOSER_ENCODED_PACKET_SIZE];
+		packetResults = new int[maxPackets];
+		resampled = new float[decodedBuffer.length
+				+ maxPackets * resampler.getMaxOutputLength(NELLYMOSER_DECODED_PACKET_SIZE)];
+		log.debug("Stream {} resampling {}", streamId, resampler);
+	}
+
+	private static PolyphaseResampler filter(int rate, boolean highQuality) {
+		int mixRate = RTPStreamMultiplexingSender.sampling.rate;
+		int key = highQuality ? rate : -rate;
+		PolyphaseResampler filter = resamplers.get(key);
+		if (filter == null || filter.getOutputRate() != mixRate) {
+			filter = new PolyphaseResampler(highQuality, rate, mixRate);
+			resamplers.put(key, filter);
+		}
+		return filter;
+	}
+
+	/**
+	 * Takes the packet due at the playout time into asaoBuffer. Mixer thread only.
+	 * <p>
+	 * The stream becomes ready once the jitter buffer holds its target delay. The first packet after that defines the
+	 * alignment of its timestamps to the playout time. The delay is reduced by dropping a packet while the buffer
+	 * stays above its target, and grows again when an underrun makes the stream wait for its target. Later packets are
+	 * played at their timestamp: late packets are dropped, missing ones are concealed by repeating the previous one
+	 * attenuated.
+	 *
+	 * @param playoutTime
+	 *            room playout time of the packet to mix [microseconds]
+	 * @return {@link #PACKET} when asaoBuffer holds the due packet, {@link #CONCEALED} when decodedBuffer holds a
+	 *         replacement, {@link #NONE} otherwise
+	 */
+	protected int readPacket(long playoutTime) {
+		concealing = false;
+		while (true) {
+			if (!pending) {
+				if (!buffer.take(asaoBuffer, 0)) {
+					/* Not ready only after buffer empty */
+					ready = false;
+					aligned = false;
+					log.debug("Stream {} buffer empty: {}", streamId, buffer);
+					return conceal();
+				}
+				pendingTimestamp = buffer.getTimestamp();
+				pending = true;
+			}
+			long lateness = playoutTime - (pendingTimestamp + offset);
+			if (!aligned || Math.abs(lateness) > RESYNC) {
+				offset = playoutTime - pendingTimestamp;
+				aligned = true;
+				lateness = 0;
+			}
+			if (lateness > frameDuration / 2) {
+				lateCount++;
+				pending = false;
+				continue;
+			}
+			long depth = bufferedDuration();
+			long targetDepth = getTargetDepth();
+			if (lateness < -frameDuration / 2) {
+				if (depth <= targetDepth) {
+					return conceal();
+				}
+				// Packets are queued but the timestamps are ahead, e.g. after frames were skipped
+				offset = playoutTime - pendingTimestamp;
+			}
+			// Shrink the delay by a packet when the buffer stays above its target
+			if (depth > targetDepth + 2 * frameDuration) {
+				if (++excessPackets >= SHRINK_PACKETS) {
+					offset -= frameDuration;
+					excessPackets = 0;
+				}
+			} else {
+				excessPackets = 0;
+			}
+			this.depth = depth;
+			pending = false;
+			decoded = false;
+			concealed = 0;
+			log.trace("Stream {} read:: ready: {} lateness {}", streamId, ready, lateness);
+			return PACKET;
+		}
+	}
+
+	private int conceal() {
+		if (!decoded || concealed >= MAX_CONCEALED) {
+			return NONE;
+		}
+		concealed++;
+		concealedCount++;
+		concealing = true;
+		return CONCEALED;
+	}
+
+	/**
+	 * Updates the speech level from the headers of the packets taken by {@link #readFrame(long, boolean)}: instant
+	 * attack, linear release. The level is held while packets are concealed.
+	 *
+	 * @param release
+	 *            level decrease per packet [log2 units]
+	 * @return current level
+	 */
+	protected float updateLevel(float release) {
+		float energy = Float.NEGATIVE_INFINITY;
+		if (resampler == null) {
+			if (!concealing) {
+				energy = Decoder.energy(asaoBuffer, 0);
+			}
+		} else {
+			for (int i = 0; i < packetCount; i++) {
+				if (packetResults[i] == PACKET) {
+					energy = Math.max(energy, Decoder.energy(packets, i * NELLYMOSER_ENCODED_PACKET_SIZE));
+				}
+			}
+		}
+		if (energy != Float.NEGATIVE_INFINITY) {
+			level = Math.max(energy, level - release);
+		}
+		return level;
+	}
+
+	/**
+	 * Decodes the packets taken by {@link #readFrame(long, boolean)} into decodedBuffer, resampled to the mixing rate.
+	 * Concealed packets repeat the previous one attenuated. May be called from any thread, but never concurrently for
+	 * the same stream.
+	 */
+	protected void decode(Decoder decoder) {
+		if (resampler == null) {
+			if (concealing) {
+				attenuate(decodedBuffer);
+			} else {
+				decoderMap = decoder.decode(decoderMap, asaoBuffer, 0, decodedBuffer, 0);
+				decoded = true;
+			}
+			return;
+		}
+		for (int i = 0; i < packetCount; i++) {
+			if (packetResults[i] == PACKET) {
+				decoderMap = decoder.decode(decoderMap, packets, i * NELLYMOSER_ENCODED_PACKET_SIZE, streamBuffer, 0);
+				decoded = true;
+			} else {
+				attenuate(streamBuffer);
+			}
+			resampledLength += resampler.process(streamBuffer, 0, streamBuffer.length, resampled, resampledLength);
+		}
+		int length = Math.min(resampledLength, decodedBuffer.length);
+		System.arraycopy(resampled, 0, decodedBuffer, 0, length);
+		Arrays.fill(decodedBuffer, length, decodedBuffer.length, 0);
+		resampledLength -= length;
+		System.arraycopy(resampled, length, resampled, 0, resampledLength);
+	}
+
+	/**
+	 * Forgets the decoding history before a stream whose packets were drained without decoding is mixed again, so its
+	 * decoder and resampler don't continue from audio long gone. Mixer thread only.
+	 */
+	protected void resetDecoder() {
+		decoderMap = null;
+		if (resampler != null) {
+			resampler.reset();
+		}
+		resampledLength = 0;
+		decoded = false;
+		Arrays.fill(decodedBuffer, 0);
+		Arrays.fill(streamBuffer, 0);
+	}
+
+	private static void attenuate(float[] pcm) {
+		for (int i = 0; i < pcm.length; i++) {
+			pcm[i] *= CONCEAL_ATTENUATION;
+		}
+	}
+
+	/**
+	 * @return packet buffer of this stream, its counters can be read from any thread
+	 */
+	public FrameRingBuffer getBuffer() {
+		return buffer;
+	}
+
+	/** Returns the number of packets dropped because they arrived after their playout time */
+	public long getLateCount() {
+		return lateCount;
 	}
 
-	protected synchronized int read(byte[] dst, int offset) {
-		int read = buffer.take(dst, offset);
-		log.trace("Stream {} read:: ready: {} read {}", streamId, ready, read);
-		return read;
+	/** Returns the number of missing packets which were concealed */
+	public long getConcealedCount() {
+		return concealedCount;
 	}
 
 	@Override
 	public void stop() {
-		// nothing to do
+		log.debug("Stream {} stopped: {}, late: {}, concealed: {}, jitter buffer {}, rate {} Hz", streamId, buffer,
+				lateCount, concealedCount, jitter, sampleRate);
 	}
 }
@@ -5,25 +5,35 @@ import static org.red5.sip.util.BytesBuffer.READY;
 import java.lang.ref.WeakReference;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.mina.util.ConcurrentHashSet;
 import org.red5.codecs.SIPCodec;
-import org.red5.codecs.asao.ByteStream;
+import org.red5.codecs.SIPCodecCN;
+import org.red5.codecs.SIPCodecFactory;
 import org.red5.codecs.asao.Decoder;
 import org.red5.sip.app.IMediaReceiver;
 import org.red5.sip.app.IMediaSender;
 import org.red5.sip.app.IMediaStream;
-import org.red5.sip.util.ResampleUtils;
+import org.red5.sip.net.rtcp.RtpSenderStatistics;
+import org.red5.sip.util.FrameAssembler;
+import org.red5.sip.util.MediaClock;
+import org.red5.sip.util.PcmMixer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.laszlosystems.libresample4j.Resampler;
+import com.laszlosystems.libresample4j.PolyphaseResampler;
 
 import local.net.RtpPacket;
 import local.net.RtpSocket;
 
-public class RTPStreamMultiplexingSender implements IMediaSender, Runnable {
+public class RTPStreamMultiplexingSender implements IMediaSender, MixerScheduler.Task, Runnable {
 	protected static Logger log = LoggerFactory.getLogger(RTPStreamMultiplexingSender.class);
 
 	public static int RTP_HEADER_SIZE = 12;
@@ -51,6 +61,63 @@ public class RTPStreamMultiplexingSender implements IMediaSender, Runnable {
 	}
 
 	public static SAMPLE_RATE sampling = SAMPLE_RATE.SAMPLING_22050;
+
+	/**
+	 * Whether RTP packets are paced by the absolute deadline {@link MediaClock} (true) or by the legacy
+	 * sleep/yield loop (false)
+	 */
+	public static boolean useMediaClock = true;
+
+	/**
+	 * Whether rooms are mixed by the shared {@link MixerScheduler} (true) or each by its own send thread (false)
+	 */
+	public static boolean useScheduler = true;
+
+	/**
+	 * Number of speaking participants from which their packets are decoded in parallel, 0 disables parallel decoding
+	 */
+	public static int parallelDecodeThreshold = 8;
+
+	private static ForkJoinPool decodePool = null;
+
+	/**
+	 * Maximum number of loudest participants mixed in each tick, 0 mixes everybody
+	 */
+	public static int maxSpeakers = 3;
+
+	/**
+	 * Whether a {@link MixerGovernor} reduces mixing quality while the room overruns its packetization
+	 */
+	public static boolean overloadGovernor = true;
+
+	/**
+	 * Time without RTMP audio after which the room stops ticking until a stream is created or sends audio
+	 * [milliseconds], 0 never hibernates
+	 */
+	public static int hibernateDelay = 5000;
+
+	/**
+	 * Whether silent frames of the mix are not sent
+	 */
+	public static boolean silenceSuppression = true;
+
+	/**
+	 * Noise level from which a frame is silent [-dBov]
+	 */
+	public static int silenceLevel = 55;
+
+	// Silent frames still sent before suppression starts, keeps word endings
+	private static final int SILENCE_HANGOVER = 10;
+	// Interval of comfort noise SID frames during silence [milliseconds]
+	private static final int SID_INTERVAL = 1000;
+
+	// Speech level decay per packet [log2 units], about 6 dB per 100 ms at 22 kHz
+	private static final float LEVEL_RELEASE = .12f;
+	// Level advantage of a current speaker over a new one [log2 units]
+	private static final float SPEAKER_HYSTERESIS = 2;
+	// Packets a speaker keeps its advantage after it gets quiet, about 0.5 s at 22 kHz
+	private static final int SPEAKER_HANGOVER = 40;
+
 	protected static final int NELLYMOSER_DECODED_PACKET_SIZE = 256;// *
 	protected static final int NELLYMOSER_ENCODED_PACKET_SIZE = 64;// *
 																	// sampling.blocks;
@@ -76,30 +143,66 @@ public class RTPStreamMultiplexingSender implements IMediaSender, Runnable {
 
 	private long time = 0;
 
-	// Temporary buffer with received PCM audio from FlashPlayer.
+	// RTP timestamp units per codec frame
+	private long frameTimestamp = 0;
+
+	// Mixed PCM audio at the codec sample rate, multiplexedBuffer when no resampling is needed
 	private float[] tempBuffer;
 	private float[] multiplexedBuffer;
+	private FrameAssembler frameAssembler;
+	private PcmMixer pcmMixer;
+	// Room playout time of the next mixed Nellymoser packet [microseconds]
+	private long playoutTime = 0;
+
+	// Streams mixed in the current tick
+	private final List<RTPStreamForMultiplex> mixList = new ArrayList<>();
 
-	private Resampler resampler;
-	private double factor = 1;
+	private PolyphaseResampler resampler;
+	private boolean highQualityResampling = true;
 
 	private Thread sendThread = new Thread(this, "RTPStreamMultiplexingSender sendThread");
 
+	private MediaClock clock = null;
+
+	private MixerGovernor governor = null;
+
+	// Ticks without mixed audio
+	private int idleTicks = 0;
+	// Set by the mixing thread, cleared by the first stream activity
+	private volatile boolean hibernating = false;
+	// Time hibernation started, 0 once the first tick after it accounted the pause [System.nanoTime()]
+	private long hibernatedAt = 0;
+
+	private boolean scheduled = false;
+
+	// Stream excluded from multiplexing
+	private final Number disableStream = 0;
+
+	// Maximum buffer usage of the streams mixed last
+	private float bufferUsage = 0;
+
 	ConcurrentHashSet<WeakReference<RTPStreamForMultiplex>> streamSet = new ConcurrentHashSet<>();
 	// Set<RTPStreamForMultiplex> streamSet = Collections.synchronizedSet(new
 	// WeakHashSet<RTPStreamForMultiplex>());
 
-	// Floats remaining on temporary buffer.
+	// Floats on temporary buffer and floats remaining on it.
+	int tempBufferLength = 0;
 	int tempBufferRemaining = 0;
 
-	// Encoding buffer used to encode to final codec format;
-	float[] encodingBuffer;
+	// Comfort noise codec, null when not negotiated
+	private SIPCodec comfortNoiseCodec = null;
 
-	// Offset of encoding buffer.
-	int encodingOffset = 0;
+	// Silent frames in a row
+	private int silentFrames = 0;
 
-	// Indicates whether the current asao buffer was processed.
-	boolean asao_buffer_processed = false;
+	// Frames since the last SID frame
+	private int sidFrames = 0;
+
+	// Whether silence is being suppressed, the next audio packet starts a talkspurt
+	private boolean suppressing = true;
+
+	// Counters of the sent packets for the RTCP sender reports
+	private RtpSenderStatistics statistics;
 
 	// Indicates whether the handling buffers have already
 	// been initialized.
@@ -159,6 +262,7 @@ public class RTPStreamMultiplexingSender implements IMediaSender, Runnable {
 		mediaReceiver.setAudioSender(this);
 		this.sipCodec = sipCodec;
 		this.doSync = do_sync;
+		statistics = new RtpSenderStatistics(sipCodec.getRtpClockRate());
 
 		try {
 			if (src_socket == null) {
@@ -178,21 +282,36 @@ public class RTPStreamMultiplexingSender implements IMediaSender, Runnable {
 		packetBuffer = new byte[sipCodec.getOutgoingEncodedFrameSize() + RTP_HEADER_SIZE];
 		rtpPacket = new RtpPacket(packetBuffer, 0);
 		rtpPacket.setPayloadType(sipCodec.getCodecId());
+		rtpPacket.setSscr(statistics.getSsrc());
 
 		seqn = 0;
 		time = 0;
+		frameTimestamp = (long) sipCodec.getOutgoingDecodedFrameSize() * sipCodec.getRtpClockRate()
+				/ sipCodec.getSampleRate();
 
 		println("start()", "using blocks of " + (packetBuffer.length - RTP_HEADER_SIZE) + " bytes.");
 
 		decoder = new Decoder();
 
-		sendThread.start();
+		if (overloadGovernor && useMediaClock) {
+			governor = new MixerGovernor(sipCodec.getOutgoingPacketization());
+		}
+
+		if (useMediaClock && useScheduler) {
+			initBuffers();
+			clock = new MediaClock(sipCodec.getOutgoingPacketization());
+			scheduled = true;
+			MixerScheduler.getInstance().register(this, clock);
+		} else {
+			sendThread.start();
+		}
 	}
 
 	@Override
 	public IMediaStream createStream(Number streamId) {
-		RTPStreamForMultiplex stream = new RTPStreamForMultiplex(streamId);
+		RTPStreamForMultiplex stream = new RTPStreamForMultiplex(streamId, this);
 		streamSet.add(new WeakReference<>(stream));
+		wake();
 		return stream;
 	}
 
@@ -228,170 +347,424 @@ public class RTPStreamMultiplexingSender implements IMediaSender, Runnable {
 		}
 	}
 
-	@Override
-	public void run() {
+	private void initBuffers() {
 		if (!hasInitilializedBuffers) {
 			multiplexedBuffer = new float[NELLYMOSER_DECODED_PACKET_SIZE];
-			encodingBuffer = new float[sipCodec.getOutgoingDecodedFrameSize()];
+			pcmMixer = new PcmMixer(NELLYMOSER_DECODED_PACKET_SIZE, sampling.rate);
+			frameAssembler = new FrameAssembler(sipCodec);
 
 			if (sipCodec.getSampleRate() == sampling.rate) {
-				tempBuffer = new float[NELLYMOSER_DECODED_PACKET_SIZE];
+				tempBuffer = multiplexedBuffer;
 				resampler = null;
 			} else {
-				factor = sipCodec.getSampleRate() / (double) sampling.rate;
-				resampler = new Resampler(true, factor, factor);
-				tempBuffer = new float[(int) (NELLYMOSER_DECODED_PACKET_SIZE * factor)];
+				resampler = new PolyphaseResampler(true, sampling.rate, sipCodec.getSampleRate());
+				tempBuffer = new float[resampler.getMaxOutputLength(NELLYMOSER_DECODED_PACKET_SIZE)];
+				println("initBuffers", "Resampling " + resampler);
 			}
 			hasInitilializedBuffers = true;
 		}
+	}
 
-		float[] decodedBuffer = new float[NELLYMOSER_DECODED_PACKET_SIZE];
-		byte[] asaoBuffer = new byte[NELLYMOSER_ENCODED_PACKET_SIZE];
-
-		Number disableStream = 0;
+	@Override
+	public void run() {
+		initBuffers();
+		if (useMediaClock) {
+			runClocked();
+		} else {
+			runLegacy();
+		}
+	}
 
-		while (rtpSocket != null) {
-			float bufferUsage = 0;
-			int multiplexingCount = 0;
-			try {
-				for (Iterator<WeakReference<RTPStreamForMultiplex>> i = streamSet.iterator(); i.hasNext();) {
-					int len = -1;
-					WeakReference<RTPStreamForMultiplex> ref = i.next();
-					RTPStreamForMultiplex stream = ref.get();
-					if (stream != null) {
-						if (stream.ready() && !stream.getStreamId().equals(disableStream)) {
-							len = stream.read(asaoBuffer, 0);
-							bufferUsage = Math.max(bufferUsage, stream.bufferUsage());
-							log.trace("Stream id {}, buffer {}", stream.getStreamId(), stream.bufferUsage());
-						} else {
-							continue;
-						}
-					} else {
-						i.remove();
-						continue;
+	/**
+	 * Sends one packet per media clock tick; the thread is parked between ticks.
+	 */
+	private void runClocked() {
+		clock = new MediaClock(sipCodec.getOutgoingPacketization());
+		clock.start();
+		while (rtpSocket != null && clock.awaitTick()) {
+			tick();
+			if (hibernating) {
+				while (hibernating && rtpSocket != null) {
+					LockSupport.park(this);
+					if (Thread.interrupted()) {
+						return;
 					}
-					if (len != -1) {
-						ByteStream audioStream = new ByteStream(asaoBuffer, 1, NELLYMOSER_ENCODED_PACKET_SIZE);
-						stream.decoderMap = decoder.decode(stream.decoderMap, audioStream.bytes, 0, decodedBuffer, 0);
-						// fillDecodedBuffer(asaoBuffer, decodedBuffer);
-						if (multiplexingCount > 0) {
-							ResampleUtils.multiplex(multiplexedBuffer, decodedBuffer);
-						} else {
-							System.arraycopy(decodedBuffer, 0, multiplexedBuffer, 0, decodedBuffer.length);
-						}
-						multiplexingCount++;
+				}
+				clock.start();
+			}
+		}
+		println("runClocked", "Media clock stopped, " + clock);
+	}
+
+	/**
+	 * Produces and sends at most one RTP packet of mixed audio.
+	 *
+	 * @return true if a packet was sent
+	 */
+	@Override
+	public boolean tick() {
+		if (rtpSocket == null) {
+			return false;
+		}
+		if (hibernatedAt != 0) {
+			resume();
+		}
+		boolean hibernated = false;
+		try {
+			while (!assembleFrame()) {
+				if (mixStreams() == 0) {
+					// Nobody is sending audio, the frame is silent
+					suppressFrame(null);
+					if (hibernateDelay > 0 && ++idleTicks * sipCodec.getOutgoingPacketization() >= hibernateDelay) {
+						hibernated = hibernate();
 					}
-					Thread.yield();
+					return false;
 				}
-			} catch (Exception e) {
-				log.error("Exception", e);
+				idleTicks = 0;
+				resampleMix();
+			}
+			return sendFrame();
+		} catch (Exception e) {
+			log.error("Error preparing RTP packet", e);
+		} finally {
+			// Once hibernating, wake() may register the room on another worker which then owns the governor
+			if (!hibernated) {
+				govern();
 			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stops ticking until {@link #wake()}. Mixing thread only, which must not touch the room state afterwards.
+	 *
+	 * @return whether the room hibernates
+	 */
+	private synchronized boolean hibernate() {
+		if (!scheduled && sendThread == null) {
+			return false;
+		}
+		println("hibernate", "No RTMP audio for " + idleTicks * sipCodec.getOutgoingPacketization() + " ms");
+		idleTicks = 0;
+		hibernatedAt = System.nanoTime();
+		hibernating = true;
+		if (scheduled) {
+			MixerScheduler.getInstance().unregister(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Resumes ticking after hibernation, called when a stream is created or receives audio.
+	 */
+	protected void wake() {
+		if (hibernating) {
+			synchronized (this) {
+				if (!hibernating) {
+					return;
+				}
+				hibernating = false;
+				if (scheduled) {
+					MixerScheduler.getInstance().register(this, clock);
+				} else if (sendThread != null) {
+					LockSupport.unpark(sendThread);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether the room is hibernating
+	 */
+	public boolean isHibernating() {
+		return hibernating;
+	}
+
+	// Advances the RTP and playout time over the hibernation, the next packet starts a talkspurt
+	private void resume() {
+		long elapsed = System.nanoTime() - hibernatedAt;
+		hibernatedAt = 0;
+		long frames = elapsed / clock.getPeriodNanos();
+		time += frames * frameTimestamp;
+		playoutTime += elapsed / 1000;
+		println("resume", "Hibernated for " + elapsed / 1000000 + " ms");
+	}
+
+	/**
+	 * Reports the response time of the tick, from its deadline, to the governor and applies its level.
+	 */
+	private void govern() {
+		if (governor == null || clock == null) {
+			return;
+		}
+		int level = governor.getLevel();
+		governor.update(System.nanoTime() - (clock.getDeadline() - clock.getPeriodNanos()));
+		if (governor.getLevel() != level) {
+			log.info("Mixing quality level {} -> {}, {}", level, governor.getLevel(), clock);
+			if (resampler != null && governor.isHighQualityResampling() != highQualityResampling) {
+				highQualityResampling = governor.isHighQualityResampling();
+				PolyphaseResampler next = new PolyphaseResampler(highQualityResampling, sampling.rate,
+						sipCodec.getSampleRate());
+				next.continueFrom(resampler);
+				resampler = next;
+			}
+		}
+	}
+
+	private void runLegacy() {
+		while (rtpSocket != null) {
+			int multiplexingCount = mixStreams();
 			if (multiplexingCount > 0) {
-				log.trace("Send: multiplexed: " + multiplexingCount + ", total streams: " + streamSet.size());
-				// ResampleUtils.normalize(multiplexedBuffer,
-				// 1.0f/multiplexingCount);
-				ResampleUtils.normalize(multiplexedBuffer, multiplexedBuffer.length);
 				try {
-					asao_buffer_processed = false;
-					do {
-						int encodedBytes = fillRtpPacketBuffer();
-						if (encodedBytes == 0) {
-							break;
-						}
-						if (encodingOffset == sipCodec.getOutgoingDecodedFrameSize()) {
-							rtpSocketSend(rtpPacket);
+					resampleMix();
+					while (tempBufferRemaining > 0) {
+						if (assembleFrame()) {
+							sendFrame();
 							doRtpDelay(bufferUsage);
-							encodingOffset = 0;
 						}
-					} while (!asao_buffer_processed);
+					}
 				} catch (Exception e) {
 					log.error("Error preparing RTP packet", e);
 				}
+			} else {
+				Thread.yield();
 			}
-
 		}
 	}
 
 	/**
-	 * Fill the buffer of RtpPacket with necessary data.
+	 * Reads the packets due at the playout time from every ready stream and mixes the decoded audio into multiplexedBuffer.
+	 *
+	 * @return number of mixed streams
 	 */
-	private int fillRtpPacketBuffer() {
-
-		int copyingSize = 0;
-		int finalCopySize = 0;
-		byte[] codedBuffer = new byte[sipCodec.getOutgoingEncodedFrameSize()];
-
+	private int mixStreams() {
+		float bufferUsage = 0;
+		mixList.clear();
+		long playoutTime = this.playoutTime;
+		this.playoutTime += NELLYMOSER_DECODED_PACKET_SIZE * 1000000L / sampling.rate;
+		MixerGovernor governor = this.governor;
+		boolean highQuality = governor == null || governor.isHighQualityResampling();
 		try {
-
-			if ((tempBufferRemaining + encodingOffset) >= sipCodec.getOutgoingDecodedFrameSize()) {
-
-				copyingSize = encodingBuffer.length - encodingOffset;
-
-				System.arraycopy(tempBuffer, tempBuffer.length - tempBufferRemaining, encodingBuffer, encodingOffset, copyingSize);
-
-				encodingOffset = sipCodec.getOutgoingDecodedFrameSize();
-				tempBufferRemaining -= copyingSize;
-				finalCopySize = sipCodec.getOutgoingDecodedFrameSize();
+			for (Iterator<WeakReference<RTPStreamForMultiplex>> i = streamSet.iterator(); i.hasNext();) {
+				WeakReference<RTPStreamForMultiplex> ref = i.next();
+				RTPStreamForMultiplex stream = ref.get();
+				if (stream == null) {
+					i.remove();
+				} else if (stream.ready() && !stream.getStreamId().equals(disableStream)) {
+					if (stream.readFrame(playoutTime, highQuality) != RTPStreamForMultiplex.NONE) {
+						mixList.add(stream);
+					}
+					bufferUsage = Math.max(bufferUsage, stream.bufferUsage());
+					log.trace("Stream id {}, buffer {}", stream.getStreamId(), stream.bufferUsage());
+				}
+			}
+			selectSpeakers(mixList, governor == null ? maxSpeakers : governor.limitSpeakers(maxSpeakers));
+			decodeStreams(mixList);
+			for (int i = 0; i < mixList.size(); i++) {
+				float[] decoded = mixList.get(i).decodedBuffer;
+				if (i > 0) {
+					pcmMixer.add(decoded);
+				} else {
+					pcmMixer.set(decoded);
+				}
+			}
+		} catch (Exception e) {
+			log.error("Exception", e);
+		}
+		this.bufferUsage = bufferUsage;
+		int multiplexingCount = mixList.size();
+		if (multiplexingCount > 0) {
+			log.trace("Send: multiplexed: " + multiplexingCount + ", total streams: " + streamSet.size());
+			if (governor == null || governor.isGainControlled()) {
+				pcmMixer.mix(multiplexedBuffer);
 			} else {
-				if (tempBufferRemaining > 0) {
-					System.arraycopy(tempBuffer, tempBuffer.length - tempBufferRemaining
-							, encodingBuffer, encodingOffset, tempBufferRemaining);
-
-					encodingOffset += tempBufferRemaining;
-					finalCopySize += tempBufferRemaining;
-					tempBufferRemaining = 0;
+				pcmMixer.mixFixedGain(multiplexedBuffer);
+			}
+		} else {
+			pcmMixer.idle();
+		}
+		return multiplexingCount;
+	}
 
+	/**
+	 * Keeps the maxSpeakers loudest streams in the list. The packets of the other streams have already been taken, so
+	 * their buffers are drained without decoding, and their decoder starts afresh once they are kept again. Current
+	 * speakers keep an advantage until they have been quiet for a hangover period.
+	 *
+	 * @param maxSpeakers
+	 *            number of streams kept, 0 keeps all
+	 */
+	private void selectSpeakers(List<RTPStreamForMultiplex> streams, int maxSpeakers) {
+		int count = streams.size();
+		for (int i = 0; i < count; i++) {
+			RTPStreamForMultiplex stream = streams.get(i);
+			float previous = stream.level;
+			if (stream.updateLevel(LEVEL_RELEASE) > previous) {
+				stream.hangover = SPEAKER_HANGOVER;
+			} else if (stream.hangover > 0) {
+				stream.hangover--;
+			}
+		}
+		if (maxSpeakers <= 0 || count <= maxSpeakers) {
+			for (int i = 0; i < count; i++) {
+				speak(streams.get(i));
+			}
+			return;
+		}
+		// Partial selection sort moving the loudest streams to the front
+		for (int i = 0; i < maxSpeakers; i++) {
+			int loudest = i;
+			float loudestPriority = priority(streams.get(i));
+			for (int j = i + 1; j < count; j++) {
+				float priority = priority(streams.get(j));
+				if (priority > loudestPriority) {
+					loudest = j;
+					loudestPriority = priority;
 				}
+			}
+			Collections.swap(streams, i, loudest);
+			speak(streams.get(i));
+		}
+		while (streams.size() > maxSpeakers) {
+			streams.remove(streams.size() - 1).speaking = false;
+		}
+	}
 
-				// Process next buffer
-				asao_buffer_processed = true;
-				if (resampler == null) {
-					System.arraycopy(multiplexedBuffer, 0, tempBuffer, 0, tempBuffer.length);
-				} else {
-					resampler.process(factor, multiplexedBuffer, 0, multiplexedBuffer.length, true, tempBuffer, 0,
-							tempBuffer.length);
-				}
-				// tempBuffer = ResampleUtils.normalize(tempBuffer, 256); //
-				// normalise volume
+	private static void speak(RTPStreamForMultiplex stream) {
+		if (!stream.speaking) {
+			stream.resetDecoder();
+			stream.speaking = true;
+		}
+	}
 
-				tempBufferRemaining = tempBuffer.length;
+	private static float priority(RTPStreamForMultiplex stream) {
+		return stream.speaking && stream.hangover > 0 ? stream.level + SPEAKER_HYSTERESIS : stream.level;
+	}
 
-				if (tempBuffer.length <= 0) {
+	/**
+	 * Decodes the packets read from the given streams, in parallel once there are at least
+	 * {@link #parallelDecodeThreshold} of them.
+	 */
+	private void decodeStreams(List<RTPStreamForMultiplex> streams) {
+		if (parallelDecodeThreshold > 0 && streams.size() >= parallelDecodeThreshold) {
+			getDecodePool().invoke(new DecodeTask(decoder, streams, 0, streams.size()));
+		} else {
+			for (int i = 0; i < streams.size(); i++) {
+				streams.get(i).decode(decoder);
+			}
+		}
+	}
 
-					println("fillRtpPacketBuffer", "Asao decoder Error.");
-				}
+	private static synchronized ForkJoinPool getDecodePool() {
+		if (decodePool == null) {
+			decodePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		}
+		return decodePool;
+	}
 
-				// Try to complete the encodingBuffer with necessary data.
+	/**
+	 * Splits decoding of a range of streams over the decode pool.
+	 */
+	private static class DecodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		// Streams decoded by a single task
+		private static final int BATCH = 2;
+
+		private final Decoder decoder;
+		private final List<RTPStreamForMultiplex> streams;
+		private final int from;
+		private final int to;
+
+		DecodeTask(Decoder decoder, List<RTPStreamForMultiplex> streams, int from, int to) {
+			this.decoder = decoder;
+			this.streams = streams;
+			this.from = from;
+			this.to = to;
+		}
 
-				if ((encodingOffset + tempBufferRemaining) > sipCodec.getOutgoingDecodedFrameSize()) {
-					copyingSize = encodingBuffer.length - encodingOffset;
-				} else {
-					copyingSize = tempBufferRemaining;
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH) {
+				for (int i = from; i < to; i++) {
+					streams.get(i).decode(decoder);
 				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new DecodeTask(decoder, streams, from, middle), new DecodeTask(decoder, streams, middle,
+						to));
+			}
+		}
+	}
 
-				System.arraycopy(tempBuffer, 0, encodingBuffer, encodingOffset, copyingSize);
+	/**
+	 * @return counters of the sent packets, the SSRC of the audio session
+	 */
+	public RtpSenderStatistics getStatistics() {
+		return statistics;
+	}
 
-				encodingOffset += copyingSize;
-				tempBufferRemaining -= copyingSize;
-				finalCopySize += copyingSize;
-			}
+	/**
+	 * @return media clock of this room, null until started or in legacy mode
+	 */
+	public MediaClock getMediaClock() {
+		return clock;
+	}
 
-			if (encodingOffset == encodingBuffer.length) {
-				int encodedBytes = sipCodec.pcmToCodec(encodingBuffer, codedBuffer);
-				if (encodedBytes == sipCodec.getOutgoingEncodedFrameSize()) {
-					System.arraycopy(codedBuffer, 0, packetBuffer, RTP_HEADER_SIZE, codedBuffer.length);
-				}
-			}
+	/**
+	 * @return current degradation level of this room's mixing, {@link MixerGovernor#FULL_QUALITY} without overload
+	 */
+	public int getDegradationLevel() {
+		return governor == null ? MixerGovernor.FULL_QUALITY : governor.getLevel();
+	}
 
-		} catch (Exception e) {
-			log.error("Exception", e);
+	/**
+	 * @return overload governor of this room, null when disabled or in legacy mode
+	 */
+	public MixerGovernor getGovernor() {
+		return governor;
+	}
+
+	/**
+	 * Converts the packet in multiplexedBuffer to the codec sample rate into tempBuffer.
+	 */
+	private void resampleMix() {
+		if (resampler != null) {
+			tempBufferLength = resampler.process(multiplexedBuffer, 0, multiplexedBuffer.length, tempBuffer, 0);
+		} else {
+			tempBufferLength = tempBuffer.length;
 		}
+		tempBufferRemaining = tempBufferLength;
+	}
 
-		return finalCopySize;
+	/**
+	 * Moves the pending mixed samples to the frame assembler.
+	 *
+	 * @return true when a codec frame is complete
+	 */
+	private boolean assembleFrame() {
+		if (tempBufferRemaining > 0) {
+			tempBufferRemaining -= frameAssembler.push(tempBuffer, tempBufferLength - tempBufferRemaining,
+					tempBufferRemaining);
+		}
+		return frameAssembler.isFrameComplete();
 	}
 
 	@Override
 	public void halt() {
+		boolean wasScheduled;
+		synchronized (this) {
+			hibernating = false;
+			wasScheduled = scheduled;
+			scheduled = false;
+		}
+		if (wasScheduled) {
+			// Outside the lock, a tick in progress may hibernate; returns once it has finished
+			MixerScheduler.getInstance().unregister(this);
+		}
+		Thread thread = sendThread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
 
 		DatagramSocket socket = rtpSocket.getDatagramSocket();
 
@@ -404,17 +777,78 @@ public class RTPStreamMultiplexingSender implements IMediaSender, Runnable {
 		rtpSocket = null;
 		sendThread = null;
 
+		if (clock != null) {
+			println("halt", "Media clock " + clock);
+		}
+		if (governor != null) {
+			println("halt", "Governor " + governor);
+		}
 		println("halt", "Terminated");
 	}
 
-	private void rtpSocketSend(RtpPacket rtpPacket) {
+	/**
+	 * Encodes and sends the complete frame of the assembler, unless it is silent and suppressed.
+	 *
+	 * @return true if an audio packet was sent
+	 */
+	private boolean sendFrame() {
+		float[] frame = frameAssembler.getFrame();
+		if (silenceSuppression && SIPCodecCN.noiseLevel(frame, frame.length) >= silenceLevel) {
+			if (++silentFrames > SILENCE_HANGOVER) {
+				suppressFrame(frame);
+				frameAssembler.reset();
+				return false;
+			}
+		} else {
+			silentFrames = 0;
+		}
+		frameAssembler.encode(packetBuffer, RTP_HEADER_SIZE);
+		// First packet of a talkspurt
+		rtpPacket.setMarker(suppressing);
+		suppressing = false;
+		rtpSocketSend(rtpPacket, sipCodec.getCodecId(), sipCodec.getOutgoingEncodedFrameSize());
+		time += frameTimestamp;
+		return true;
+	}
+
+	/**
+	 * Skips a silent frame. With comfort noise a SID frame is sent when silence starts and then every
+	 * {@link #SID_INTERVAL} ms.
+	 *
+	 * @param pcm
+	 *            the silent frame, null if nothing was mixed
+	 */
+	private void suppressFrame(float[] pcm) {
+		if (comfortNoiseCodec != null
+				&& (!suppressing || ++sidFrames * sipCodec.getOutgoingPacketization() >= SID_INTERVAL)) {
+			if (pcm == null) {
+				comfortNoiseCodec.getCodecBlankPacket(packetBuffer, RTP_HEADER_SIZE);
+			} else {
+				comfortNoiseCodec.pcmToCodec(pcm, packetBuffer, RTP_HEADER_SIZE);
+			}
+			rtpPacket.setMarker(false);
+			rtpSocketSend(rtpPacket, comfortNoiseCodec.getCodecId(), comfortNoiseCodec.getOutgoingEncodedFrameSize());
+			sidFrames = 0;
+		}
+		suppressing = true;
+		time += frameTimestamp;
+	}
+
+	/**
+	 * Enables RFC 3389 comfort noise for suppressed silence, must be negotiated with the remote party.
+	 */
+	public void setComfortNoise(boolean comfortNoise) {
+		comfortNoiseCodec = comfortNoise ? SIPCodecFactory.getInstance().getComfortNoiseCodec() : null;
+	}
+
+	private void rtpSocketSend(RtpPacket rtpPacket, int payloadType, int payloadLength) {
 		try {
 			rtpPacket.setTimestamp(time);
 			rtpPacket.setSequenceNumber(seqn++);
-			rtpPacket.setPayloadLength(sipCodec.getOutgoingEncodedFrameSize());
-			rtpPacket.setPayloadType(sipCodec.getCodecId());
+			rtpPacket.setPayloadLength(payloadLength);
+			rtpPacket.setPayloadType(payloadType);
 			rtpSocket.send(rtpPacket);
-			time += sipCodec.getOutgoingPacketization();
+			statistics.sent(rtpPacket);
 		} catch (Exception e) {
 			log.error("Error sending RTP packet", e);
 		}
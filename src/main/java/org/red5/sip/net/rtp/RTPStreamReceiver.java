@@ -1,35 +1,86 @@
 package org.red5.sip.net.rtp;
 
-import static org.red5.sip.util.BytesBuffer.READY;
-
 import java.io.IOException;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 
 import local.net.RtpPacket;
 import local.net.RtpSocket;
 
 import org.red5.codecs.SIPCodec;
+import org.red5.codecs.SIPCodecFactory;
 import org.red5.sip.app.IMediaReceiver;
-import org.red5.sip.util.BytesBuffer;
+import org.red5.sip.net.rtcp.RtcpSession;
+import org.red5.sip.net.rtcp.RtpReceiverStatistics;
+import org.red5.sip.util.MediaClock;
+import org.red5.sip.util.RtmpAudioTranscoder;
+import org.red5.sip.util.RtpJitterBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class RTPStreamReceiver extends Thread {
+/**
+ * Receives RTP from the SIP side and forwards it to RTMP, transcoded by a {@link RtmpAudioTranscoder} unless it is
+ * G.711.
+ * <p>
+ * Packets are read by a {@link RtpReactor} worker, from the own channel of the call or from the port shared by all
+ * calls through a {@link RtpDemultiplexer}. With direct forwarding the worker pushes every packet to RTMP
+ * itself. Otherwise packets are reordered by a {@link RtpJitterBuffer} and played out by a {@link MixerScheduler}
+ * tick, which is registered when a packet arrives and unregistered when the buffer runs empty, so an idle call costs
+ * no wakeups.
+ */
+public class RTPStreamReceiver implements MixerScheduler.Task, RtpReactor.Handler, RtpDemultiplexer.Receiver {
 
 	protected static Logger log = LoggerFactory.getLogger(RTPStreamReceiver.class);
 	public static int RTP_HEADER_SIZE = 12;
-	public static final int SO_TIMEOUT = 200; // Maximum blocking time, spent
-												// waiting for reading new bytes
-												// [milliseconds]
+	/**
+	 * Whether received packets are forwarded to RTMP at once (true) or played out paced by the packetization (false)
+	 */
+	public static boolean directForwarding = false;
+
+	/**
+	 * Whether G.711 is forwarded to RTMP as is (true) or transcoded to Nellymoser like the other codecs (false)
+	 */
+	public static boolean g711Passthrough = true;
+
+	/**
+	 * Bounds of the jitter buffer delay [milliseconds]
+	 */
+	public static int minJitterDelay = 20;
+	public static int maxJitterDelay = 400;
+
+	// Buffered packets
+	private static final int BUFFER_LENGTH = 128;
+	// Jitter buffer delay until the jitter is known [milliseconds]
+	private static final int INITIAL_JITTER_DELAY = 100;
+	// Receive buffer, large enough for the RTCP multiplexed on the RTP socket
+	private static final int MAX_DATAGRAM_SIZE = 1500;
 	private SIPCodec sipCodec = null; // Sip codec to be used on audio session
 	private IMediaReceiver rtmpUser = null;
+	private DatagramChannel channel = null;
 	private RtpSocket rtp_socket = null;
+	// Shared port the call is received on and the remote party, null with an own channel
+	private RtpDemultiplexer demultiplexer = null;
+	private InetSocketAddress remote = null;
+	// Receive buffer of the reactor worker, a view of the demultiplexer buffer on a shared port
+	private RtpPacket rtpPacket = null;
 	private boolean socketIsLocal = false; // Whether the socket has been
 											// created here
-	private boolean running = false;
+	private volatile boolean running = false;
 	private long timeStamp = 0;
 	private int frameCounter = 0;
-	private final Object sync = new Object();
+	// Packets of the codec dropped as shorter than a frame, e.g. truncated or SID frames
+	private int shortCounter = 0;
+
+	// Paced playout: filled by the receiving thread, emptied by the tick
+	private RtpJitterBuffer buffer = null;
+	private MediaClock clock = null;
+	private volatile boolean playing = false;
+	// Payload received and its conversion for RTMP, owned by the thread forwarding
+	private byte[] codedBuffer = null;
+	private RtmpAudioTranscoder transcoder = null;
+	private RtpReceiverStatistics statistics = null;
+	// Receives the RTCP multiplexed with RTP, null without rtcp-mux
+	private volatile RtcpSession rtcpSession = null;
 
 	/**
 	 * Constructs a RtpStreamReceiver.
@@ -44,11 +95,11 @@ public class RTPStreamReceiver extends Thread {
 
 	public RTPStreamReceiver(SIPCodec sipCodec, IMediaReceiver rtmpUser, int local_port) {
 		try {
-			DatagramSocket socket = new DatagramSocket(local_port);
+			DatagramChannel channel = RtpReactor.openChannel(local_port);
 
 			socketIsLocal = true;
 
-			init(sipCodec, rtmpUser, socket);
+			init(sipCodec, rtmpUser, channel);
 		} catch (Exception e) {
 			log.error("Exception", e);
 		}
@@ -61,22 +112,44 @@ public class RTPStreamReceiver extends Thread {
 	 *            codec to be used on audio session
 	 * @param rtmpUser
 	 *            the stream sink
-	 * @param socket
-	 *            the local receiver DatagramSocket
+	 * @param channel
+	 *            the local receiver channel, opened by {@link RtpReactor#openChannel(int)}
+	 */
+
+	public RTPStreamReceiver(SIPCodec sipCodec, IMediaReceiver rtmpUser, DatagramChannel channel) {
+		init(sipCodec, rtmpUser, channel);
+	}
+
+	/**
+	 * Constructs a RtpStreamReceiver on a shared port.
+	 * 
+	 * @param sipCodec
+	 *            codec to be used on audio session
+	 * @param rtmpUser
+	 *            the stream sink
+	 * @param demultiplexer
+	 *            the shared local port
+	 * @param remote
+	 *            the remote RTP address of the call
 	 */
 
-	public RTPStreamReceiver(SIPCodec sipCodec, IMediaReceiver rtmpUser, DatagramSocket socket) {
-		init(sipCodec, rtmpUser, socket);
+	public RTPStreamReceiver(SIPCodec sipCodec, IMediaReceiver rtmpUser, RtpDemultiplexer demultiplexer,
+			InetSocketAddress remote) {
+		this.demultiplexer = demultiplexer;
+		this.remote = remote;
+		init(sipCodec, rtmpUser, demultiplexer.getChannel());
 	}
 
 	/** Inits the RtpStreamReceiver */
 
-	private void init(SIPCodec sipCodec, IMediaReceiver rtmpUser, DatagramSocket socket) {
+	private void init(SIPCodec sipCodec, IMediaReceiver rtmpUser, DatagramChannel channel) {
 		this.sipCodec = sipCodec;
 		this.rtmpUser = rtmpUser;
+		this.statistics = new RtpReceiverStatistics(sipCodec.getRtpClockRate());
 
-		if (socket != null) {
-			rtp_socket = new RtpSocket(socket);
+		if (channel != null) {
+			this.channel = channel;
+			rtp_socket = new RtpSocket(channel.socket());
 		}
 	}
 
@@ -86,120 +159,235 @@ public class RTPStreamReceiver extends Thread {
 		return running;
 	}
 
-	/** Stops running */
+	/** Starts receiving on the shared {@link RtpReactor}. */
 
-	public void halt() {
-		running = false;
+	public void start() {
+		if (rtp_socket == null) {
+			log.debug("start:: RTP socket is null.");
+			return;
+		}
+
+		codedBuffer = new byte[sipCodec.getIncomingEncodedFrameSize()];
+		transcoder = new RtmpAudioTranscoder(sipCodec, g711Passthrough, !directForwarding);
+		log.debug("start:: Audio to RTMP: {}.", transcoder);
+		if (!directForwarding) {
+			buffer = new RtpJitterBuffer(sipCodec.getIncomingEncodedFrameSize(), BUFFER_LENGTH,
+					sipCodec.getRtpClockRate(), sipCodec.getIncomingPacketization(), minJitterDelay, maxJitterDelay,
+					INITIAL_JITTER_DELAY);
+			clock = new MediaClock(sipCodec.getIncomingPacketization());
+		}
+		if (demultiplexer != null) {
+			rtpPacket = new RtpPacket(new byte[RTP_HEADER_SIZE], 0);
+		} else {
+			rtpPacket = new RtpPacket(
+					new byte[Math.max(MAX_DATAGRAM_SIZE, sipCodec.getIncomingEncodedFrameSize() + RTP_HEADER_SIZE)], 0);
+		}
+
+		running = true;
+		if (demultiplexer != null) {
+			demultiplexer.register(remote, this);
+			return;
+		}
+		try {
+			RtpReactor.getInstance().register(channel, this);
+		} catch (IOException e) {
+			running = false;
+			log.error("Exception", e);
+		}
 	}
 
-	/** Runs it in a new Thread. */
+	/** Stops running, returns when no packet is received any more */
 
-	public void run() {
-		if (rtp_socket == null) {
-			log.debug("run:: RTP socket is null.");
+	public void halt() {
+		if (!running) {
 			return;
 		}
+		running = false;
+		if (demultiplexer != null) {
+			demultiplexer.unregister(this);
+		} else {
+			RtpReactor.getInstance().unregister(channel);
+		}
+		boolean wasPlaying;
+		synchronized (this) {
+			wasPlaying = playing;
+			playing = false;
+		}
+		if (wasPlaying) {
+			// Outside the lock the tick takes, returns once a tick in progress has finished
+			MixerScheduler.getInstance().unregister(this);
+		}
+		flush();
 
-		running = true;
+		if (socketIsLocal) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.debug("halt:: Error closing channel.", e);
+			}
+		}
+		rtp_socket = null;
 
-		final int BUFFER_LENGTH = 100;
-		final BytesBuffer buffer = new BytesBuffer(sipCodec.getIncomingEncodedFrameSize(), BUFFER_LENGTH);
-
-		Thread sendThread = new Thread(new Runnable() {
-			public void run() {
-				boolean ready = false;
-                float bufferUsage = 0;
-				byte[] codedBuffer = null;
-				while (running) {
-					synchronized (sync) {
-                        bufferUsage = buffer.bufferUsage();
-						if (!ready) {
-							if (bufferUsage > READY) {
-								ready = true;
-							}
-						} else {
-							if (bufferUsage == 0) {
-                                /* Sending while buffer not empty */
-								ready = false;
-							}
-						}
-						if (ready) {
-							codedBuffer = new byte[sipCodec.getIncomingEncodedFrameSize()];
-							buffer.take(codedBuffer, 0);
-						}
-					}
-					if (ready) {
-						timeStamp += sipCodec.getIncomingPacketization();
-						try {
-							rtmpUser.pushAudio(codedBuffer, timeStamp, 130);
-							try {
-
-								long pause = sipCodec.getOutgoingPacketization();
-								if (bufferUsage > .5f) {
-									pause -= 5;
-								}
-								if (bufferUsage > READY) {
-									pause -= 1;
-								}
-								log.trace("Sleep pause: " + pause);
-								Thread.sleep(pause, 800000);
-							} catch (InterruptedException e) {
-								log.debug("InterruptedException: ", e);
-							}
-						} catch (IOException e) {
-							log.error("rtmpUser.pushAudio", e);
-						}
-					}
-					Thread.yield();
+		log.debug("halt:: Terminated.");
+		log.debug("halt:: Frames = {}, shorter than a frame = {}.", frameCounter, shortCounter);
+		if (buffer != null) {
+			log.debug("halt:: Jitter buffer {}, clock {}.", buffer, clock);
+		}
+	}
+
+	/**
+	 * Reads a datagram of the channel, called by the {@link RtpReactor} worker.
+	 */
+	@Override
+	public boolean receive() throws IOException {
+		if (!rtp_socket.poll(rtpPacket)) {
+			return false;
+		}
+		received(rtpPacket.getPacket(), rtpPacket.getLength());
+		return true;
+	}
+
+	/**
+	 * Processes a datagram of the call, called by the {@link RtpReactor} worker.
+	 */
+	@Override
+	public void received(byte[] packetBuffer, int length) {
+		if (RtcpSession.isRtcp(packetBuffer, length)) {
+			RtcpSession session = rtcpSession;
+			if (session != null) {
+				session.received(packetBuffer, length);
+			}
+			return;
+		}
+		if (!running || length < RTP_HEADER_SIZE) {
+			return;
+		}
+		rtpPacket.wrap(packetBuffer, length);
+		frameCounter++;
+		statistics.received(rtpPacket.getSequenceNumber(), rtpPacket.getTimestamp(), rtpPacket.getSscr());
+
+		int offset = rtpPacket.getPayloadOffset();
+		int payloadType = rtpPacket.getPayloadType();
+
+		// Only the negotiated codec is decoded, comfort noise is not forwarded and the RTMP side stays silent
+		if (payloadType == sipCodec.getCodecId() && !SIPCodecFactory.getInstance().isComfortNoise(payloadType)) {
+			if (length - offset < codedBuffer.length) {
+				// The bytes missing would be left from the previous datagram
+				shortCounter++;
+				return;
+			}
+			if (directForwarding) {
+				System.arraycopy(packetBuffer, offset, codedBuffer, 0, codedBuffer.length);
+				forward();
+			} else {
+				buffer.push(rtpPacket.getSequenceNumber(), rtpPacket.getTimestamp(), rtpPacket.getSscr(),
+						packetBuffer, offset);
+				if (!playing) {
+					startPlayout();
 				}
 			}
-		}, "RTPStreamReceiver sendThread");
+		}
+	}
 
-		sendThread.start();
+	/**
+	 * No RTP for a while, sends audio held back for aggregation.
+	 */
+	@Override
+	public void idle() {
+		flush();
+	}
 
-		try {
+	/**
+	 * Plays out the packet due. A lost packet is replaced by the concealment of the codec, or leaves a gap in the RTMP
+	 * timestamps when the codec does not conceal. Playout stops when the buffer runs empty.
+	 */
+	@Override
+	public boolean tick() {
+		switch (buffer.take(codedBuffer, 0)) {
+			case RtpJitterBuffer.PACKET:
+				forward();
+				return true;
+			case RtpJitterBuffer.LOST:
+				timeStamp += sipCodec.getIncomingPacketization();
+				if (transcoder.conceal(timeStamp)) {
+					push();
+					return true;
+				}
+				return false;
+			default:
+				if (buffer.getDepth() == 0) {
+					stopPlayout();
+					// A packet may have arrived before playing was cleared
+					if (buffer.getDepth() > 0) {
+						startPlayout();
+					}
+				}
+				return false;
+		}
+	}
 
-			rtp_socket.getDatagramSocket().setSoTimeout(SO_TIMEOUT);
-			RtpPacket rtpPacket = new RtpPacket(new byte[sipCodec.getIncomingEncodedFrameSize() + RTP_HEADER_SIZE], 0);
-			while (running) {
+	/**
+	 * @return statistics of the received RTP for the RTCP receiver reports
+	 */
+	public RtpReceiverStatistics getStatistics() {
+		return statistics;
+	}
 
-				try {
-					rtp_socket.receive(rtpPacket);
-					frameCounter++;
+	/**
+	 * Passes the RTCP arriving on the RTP socket to the session, with rtcp-mux.
+	 */
+	public void setRtcpSession(RtcpSession rtcpSession) {
+		this.rtcpSession = rtcpSession;
+	}
 
-					if (running) {
+	/**
+	 * @return jitter buffer of the call, null with direct forwarding or before the receiver runs
+	 */
+	public RtpJitterBuffer getJitterBuffer() {
+		return buffer;
+	}
 
-						byte[] packetBuffer = rtpPacket.getPacket();
-						int offset = rtpPacket.getHeaderLength();
-						int payloadType = rtpPacket.getPayloadType();
+	private void forward() {
+		timeStamp += sipCodec.getIncomingPacketization();
+		transcoder.transcode(codedBuffer, timeStamp);
+		push();
+	}
 
-						if (payloadType < 20) {
-							synchronized (sync) {
-								buffer.push(packetBuffer, offset, sipCodec.getIncomingEncodedFrameSize());
-							}
-						}
-					}
-				} catch (java.io.InterruptedIOException e) {
-				}
+	// Pushes the frames completed by the last payload
+	private void push() {
+		try {
+			while (transcoder.nextFrame()) {
+				rtmpUser.pushAudio(transcoder.getFrame(), transcoder.getFrameTimestamp(), transcoder.getAudioTag(),
+						transcoder.isVoice());
 			}
-		} catch (Exception e) {
-
-			running = false;
-			log.error("Exception", e);
+		} catch (IOException e) {
+			log.error("rtmpUser.pushAudio", e);
 		}
+	}
 
-		// Close RtpSocket and local DatagramSocket.
-		DatagramSocket socket = rtp_socket.getDatagramSocket();
-		rtp_socket.close();
-
-		if (socketIsLocal && socket != null) {
-			socket.close();
+	// Registration changes only when a talkspurt starts or ends, never per packet
+	private synchronized void startPlayout() {
+		if (!playing && running) {
+			playing = true;
+			MixerScheduler.getInstance().register(this, clock);
 		}
+	}
 
-		// Free all.
-		rtp_socket = null;
+	// Tick only, halt() unregisters outside the lock
+	private synchronized void stopPlayout() {
+		if (playing) {
+			playing = false;
+			MixerScheduler.getInstance().unregister(this);
+			// End of the talkspurt
+			flush();
+		}
+	}
 
-		log.debug("run:: Terminated.");
-		log.debug("run:: Frames = {}.", frameCounter);
+	private void flush() {
+		try {
+			rtmpUser.flushAudio();
+		} catch (IOException e) {
+			log.error("rtmpUser.flushAudio", e);
+		}
 	}
 }
@@ -1,112 +1,199 @@
 package org.red5.sip.net.rtp;
 
-import java.net.DatagramSocket;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.List;
 
 import org.red5.codecs.SIPCodec;
 import org.red5.sip.app.IMediaReceiver;
 import org.red5.sip.app.SIPTransport;
 import org.red5.sip.app.SIPVideoConverter;
 import org.red5.sip.app.SIPVideoConverter.RTMPPacketInfo;
+import org.red5.sip.net.rtcp.RtcpSession;
+import org.red5.sip.net.rtcp.RtpReceiverStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import local.net.RtpPacket;
 import local.net.RtpSocket;
 
-public class RTPStreamVideoReceiver extends Thread {
+/**
+ * Receives the video RTP of a call on a {@link RtpReactor} worker, which converts it and pushes it to RTMP. The call
+ * has its own channel or shares a port with the other calls through a {@link RtpDemultiplexer}.
+ */
+public class RTPStreamVideoReceiver implements RtpReactor.Handler, RtpDemultiplexer.Receiver {
 	protected static Logger log = LoggerFactory.getLogger(RTPStreamVideoReceiver.class);
+	// Packet buffer size, video RTP is packetized to fit the path MTU so a datagram filling it is dropped
+	private static final int MAX_DATAGRAM_SIZE = 1500;
+	// Free packets kept for reuse, those released beyond are left to the garbage collector
+	private static final int MAX_FREE_PACKETS = 64;
 	protected RtpSocket rtpSocket;
 	protected IMediaReceiver mediaReceiver;
 	protected SIPCodec codec;
-	private boolean running;
-	private ConverterThread converterThread;
+	private volatile boolean running;
+	private SIPVideoConverter converter;
 	private SIPTransport sipTransport;
-	private DatagramSocket socket;
+	private DatagramChannel channel;
+	// Shared port the call is received on and the remote party, null with an own channel
+	private RtpDemultiplexer demultiplexer = null;
+	private InetSocketAddress remote = null;
+	// Buffer of the next packet, the converter keeps the packets of a frame until it is complete
+	private RtpPacket rtpPacket = null;
+	// Packets kept by the converter in the order received, and the free ones
+	private final ArrayDeque<RtpPacket> lentPackets = new ArrayDeque<>();
+	private final ArrayDeque<RtpPacket> freePackets = new ArrayDeque<>();
+	private final RtpReceiverStatistics statistics;
+	// Receives the RTCP multiplexed with RTP, null without rtcp-mux
+	private volatile RtcpSession rtcpSession = null;
 
 	public RTPStreamVideoReceiver(SIPTransport sipTransport, IMediaReceiver mediaReceiver, SIPCodec codec,
-			DatagramSocket socket) {
+			DatagramChannel channel) {
 		log.debug("... constructor !!!");
 		this.mediaReceiver = mediaReceiver;
-		this.socket = socket;
+		this.channel = channel;
 		this.codec = codec;
 		this.sipTransport = sipTransport;
+		this.statistics = new RtpReceiverStatistics(codec.getRtpClockRate());
 	}
 
-	@Override
-	public void interrupt() {
-		running = false;
-		converterThread.interrupt();
-		rtpSocket.close();
+	public RTPStreamVideoReceiver(SIPTransport sipTransport, IMediaReceiver mediaReceiver, SIPCodec codec,
+			RtpDemultiplexer demultiplexer, InetSocketAddress remote) {
+		this(sipTransport, mediaReceiver, codec, demultiplexer.getChannel());
+		this.demultiplexer = demultiplexer;
+		this.remote = remote;
 	}
 
-	@Override
-	public void run() {
+	/**
+	 * @return statistics of the received RTP for the RTCP receiver reports
+	 */
+	public RtpReceiverStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Passes the RTCP arriving on the RTP socket to the session, with rtcp-mux.
+	 */
+	public void setRtcpSession(RtcpSession rtcpSession) {
+		this.rtcpSession = rtcpSession;
+	}
+
+	public void start() {
+		rtpSocket = new RtpSocket(channel.socket());
+		converter = new SIPVideoConverter(sipTransport);
 		running = true;
-		rtpSocket = new RtpSocket(socket);
-		converterThread = new ConverterThread(sipTransport);
-		converterThread.start();
+		if (demultiplexer != null) {
+			demultiplexer.register(remote, this);
+			return;
+		}
 		try {
-			while (running) {
-				RtpPacket rtpPacket = new RtpPacket(new byte[codec.getIncomingDecodedFrameSize()], 0);
-				rtpSocket.receive(rtpPacket);
-				converterThread.addPacket(rtpPacket);
+			RtpReactor.getInstance().register(channel, this);
+		} catch (IOException e) {
+			running = false;
+			log.error("Can't receive video", e);
+		}
+	}
+
+	/**
+	 * Stops receiving, returns when no packet is converted any more.
+	 */
+	public void halt() {
+		if (running) {
+			running = false;
+			if (demultiplexer != null) {
+				demultiplexer.unregister(this);
+			} else {
+				RtpReactor.getInstance().unregister(channel);
 			}
-		} catch (Exception e) {
-			log.error("Unexpected exception while running, shutting down", e);
-			interrupt();
 		}
 	}
 
-	private class ConverterThread extends Thread {
-		private final Queue<RtpPacket> packetQueue;
-		private boolean running;
-		private SIPVideoConverter converter;
+	/**
+	 * Reads a datagram of the channel, called by the {@link RtpReactor} worker.
+	 */
+	@Override
+	public boolean receive() throws IOException {
+		RtpPacket rtpPacket = nextPacket();
+		if (!rtpSocket.poll(rtpPacket)) {
+			return false;
+		}
+		if (rtpPacket.getLength() >= MAX_DATAGRAM_SIZE) {
+			// Filled the buffer, truncated
+			log.debug("Dropped a datagram of {} bytes or more", rtpPacket.getLength());
+			return true;
+		}
+		process();
+		return true;
+	}
 
-		public ConverterThread(SIPTransport sipTransport) {
-			log.debug("... ConverterThread constructor !!!");
-			packetQueue = new ConcurrentLinkedQueue<>();
-			converter = new SIPVideoConverter(sipTransport);
+	/**
+	 * Copies a datagram of the shared port, called by the {@link RtpReactor} worker.
+	 */
+	@Override
+	public void received(byte[] packet, int length) {
+		RtpPacket rtpPacket = nextPacket();
+		if (length >= MAX_DATAGRAM_SIZE) {
+			log.debug("Dropped a datagram of {} bytes", length);
+			return;
 		}
+		System.arraycopy(packet, 0, rtpPacket.getPacket(), 0, length);
+		rtpPacket.wrap(rtpPacket.getPacket(), length);
+		process();
+	}
 
-		public void addPacket(RtpPacket packet) {
-			if (!running) {
-				return;
+	private RtpPacket nextPacket() {
+		if (rtpPacket == null) {
+			rtpPacket = freePackets.poll();
+			if (rtpPacket == null) {
+				rtpPacket = new RtpPacket(new byte[MAX_DATAGRAM_SIZE], 0);
 			}
-			packetQueue.add(packet);
 		}
+		return rtpPacket;
+	}
 
-		@Override
-		public void run() {
-			running = true;
-			while (running) {
-				try {
-					if (sipTransport.getSipUsersCount() > 0) {
-						RtpPacket packet = packetQueue.poll();
-						if (packet != null) {
-							mediaReceiver.setVideoReceivingEnabled(true);
-							for (RTMPPacketInfo packetInfo : converter.rtp2rtmp(packet, codec)) {
-								mediaReceiver.pushVideo(packetInfo.data, packetInfo.ts);
-							}
-						}
-					} else {
-						mediaReceiver.setVideoReceivingEnabled(false);
-						packetQueue.clear();
-					}
-					if (packetQueue.size() == 0) {
-						Thread.sleep(50);
+	// Converts the received packet
+	private void process() {
+		RtpPacket rtpPacket = this.rtpPacket;
+		if (RtcpSession.isRtcp(rtpPacket.getPacket(), rtpPacket.getLength())) {
+			RtcpSession session = rtcpSession;
+			if (session != null) {
+				session.received(rtpPacket.getPacket(), rtpPacket.getLength());
+			}
+			return;
+		}
+		statistics.received(rtpPacket.getSequenceNumber(), rtpPacket.getTimestamp(), rtpPacket.getSscr());
+		if (!running) {
+			return;
+		}
+		try {
+			if (sipTransport.getSipUsersCount() > 0) {
+				mediaReceiver.setVideoReceivingEnabled(true);
+				List<RTMPPacketInfo> frames = converter.rtp2rtmp(rtpPacket, codec);
+				if (converter.getLastQueuedPacket() == rtpPacket) {
+					lentPackets.add(rtpPacket);
+					this.rtpPacket = null;
+				}
+				// The converter released the packets of completed or dropped frames
+				while (lentPackets.size() > converter.getQueuedPacketCount()) {
+					RtpPacket released = lentPackets.poll();
+					if (freePackets.size() < MAX_FREE_PACKETS) {
+						freePackets.add(released);
 					}
-				} catch (Exception e) {
-					log.error("", e);
 				}
+				for (RTMPPacketInfo packetInfo : frames) {
+					mediaReceiver.pushVideo(packetInfo.data, packetInfo.ts);
+				}
+			} else {
+				mediaReceiver.setVideoReceivingEnabled(false);
 			}
+		} catch (Exception e) {
+			log.error("", e);
 		}
+	}
 
-		@Override
-		public void interrupt() {
-			running = false;
-			packetQueue.clear();
-		}
+	@Override
+	public void idle() {
+		// Video frames are pushed when complete
 	}
 }
@@ -8,6 +8,7 @@ import org.red5.sip.app.IMediaReceiver;
 import org.red5.sip.app.IMediaSender;
 import org.red5.sip.app.IMediaStream;
 import org.red5.sip.app.SIPTransport;
+import org.red5.sip.net.rtcp.RtpSenderStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,12 +23,15 @@ public class RTPStreamVideoSender implements IMediaSender {
 	private IMediaReceiver mediaReceiver;
 	private RtpSocket rtpSocket;
 	private int seqn = 0;
+	// Converted packets are stamped with one SSRC, counted for the RTCP sender reports
+	private final RtpSenderStatistics statistics;
 	
 	public RTPStreamVideoSender(SIPTransport sipTransport, IMediaReceiver mediaReceiver, SIPCodec codec, 
 			DatagramSocket srcSocket, String destAddr, int destPort) {
 		this.codec = codec;
 		this.sipTransport = sipTransport;
 		this.mediaReceiver = mediaReceiver;
+		this.statistics = new RtpSenderStatistics(codec.getRtpClockRate());
 		
 		try {
 			rtpSocket = new RtpSocket(srcSocket, InetAddress.getByName(destAddr), destPort);
@@ -63,9 +67,15 @@ public class RTPStreamVideoSender implements IMediaSender {
 		rtpSocketSend(packet);
 	}
 	
+	public RtpSenderStatistics getStatistics() {
+		return statistics;
+	}
+
 	private synchronized void rtpSocketSend(RtpPacket rtpPacket) {
 		try {
+			rtpPacket.setSscr(statistics.getSsrc());
 			rtpSocket.send(rtpPacket);
+			statistics.sent(rtpPacket);
 		} catch (Exception e) {
 			log.error("", e);
 		}
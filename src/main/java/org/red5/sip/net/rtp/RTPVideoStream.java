@@ -1,7 +1,7 @@
 package org.red5.sip.net.rtp;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.red5.codecs.SIPCodec;
 import org.red5.sip.app.IMediaReceiver;
@@ -20,7 +20,7 @@ public class RTPVideoStream implements IMediaStream {
 	private SIPVideoConverter converter;
 	private SIPCodec codec;
 	private SIPTransport sipTransport;
-	private boolean running;
+	private volatile boolean running;
 	private ConverterThread converterThread;
 	private IMediaReceiver mediaReceiver;
 
@@ -31,8 +31,8 @@ public class RTPVideoStream implements IMediaStream {
 		this.mediaReceiver = mediaReceiver;
 		converter = new SIPVideoConverter(sipTransport);
 		converterThread = new ConverterThread();
-		converterThread.start();
 		running = true;
+		converterThread.start();
 	}
 
 	@Override
@@ -43,9 +43,15 @@ public class RTPVideoStream implements IMediaStream {
 		converterThread.addData(data, timestamp);
 	}
 
+	@Override
+	public void setSampleRate(int sampleRate) {
+		// Not applicable for video
+	}
+
 	@Override
 	public void stop() {
 		running = false;
+		converterThread.interrupt();
 	}
 
 	public SIPVideoConverter getConverter() {
@@ -54,10 +60,10 @@ public class RTPVideoStream implements IMediaStream {
 
 	private class ConverterThread extends Thread {
 
-		private Queue<QueueItem> queue;
+		private BlockingQueue<QueueItem> queue;
 
 		public ConverterThread() {
-			queue = new ConcurrentLinkedQueue<>();
+			queue = new LinkedBlockingQueue<>();
 		}
 
 		public void addData(byte[] data, long ts) {
@@ -68,23 +74,20 @@ public class RTPVideoStream implements IMediaStream {
 		public void run() {
 			while (running) {
 				try {
+					// Parked until RTMP video is queued
+					QueueItem item = queue.take();
 					if (sipTransport.getSipUsersCount() > 0 && mediaReceiver.isVideoReceivingEnabled()) {
-						QueueItem item = queue.poll();
-						if (item != null) {
-							if (log.isTraceEnabled()) {
-								log.trace("+++ Video - ts: {} length: {} data: {}", item.ts, item.data.length, item.data);
-							}
-							for (RtpPacket packet: converter.rtmp2rtp(item.data, item.ts, codec)) {
-								sender.send(packet);
-							}
+						if (log.isTraceEnabled()) {
+							log.trace("+++ Video - ts: {} length: {} data: {}", item.ts, item.data.length, item.data);
+						}
+						for (RtpPacket packet: converter.rtmp2rtp(item.data, item.ts, codec)) {
+							sender.send(packet);
 						}
 					} else {
 						queue.clear();
 					}
-
-					if (queue.size() == 0) {
-						Thread.sleep(50);
-					}
+				} catch (InterruptedException e) {
+					break;
 				} catch (Exception e) {
 					log.error("", e);
 				}
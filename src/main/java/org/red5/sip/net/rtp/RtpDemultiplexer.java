@@ -0,0 +1,226 @@
+package org.red5.sip.net.rtp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.red5.sip.net.rtcp.RtcpSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One local port shared by the media of all calls.
+ * <p>
+ * The channel is read by a {@link RtpReactor} worker and each datagram is handed to the call it belongs to: by its
+ * source address, which starts as the address of the remote SDP and latches to the actual source of the first
+ * packet of a call when only one call expects media from that host, then by the SSRC learned from earlier packets,
+ * so a call whose source port changes behind a NAT is found again. Only the host of the remote SDP can move a call
+ * that way. Datagrams of unknown calls are dropped.
+ */
+public class RtpDemultiplexer implements RtpReactor.Handler {
+	protected static Logger log = LoggerFactory.getLogger(RtpDemultiplexer.class);
+
+	/** Whether all calls share one audio and one video port (true) or each room binds its own (false) */
+	public static boolean sharedPorts = false;
+
+	// Large enough for any UDP datagram
+	private static final int MAX_DATAGRAM_SIZE = 65535;
+	private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(RtpReactor.IDLE_TIMEOUT);
+
+	private static final Map<Integer, RtpDemultiplexer> instances = new HashMap<>();
+
+	/**
+	 * Call pipeline fed by the demultiplexer, called by the worker thread of the port only.
+	 */
+	public interface Receiver {
+		/**
+		 * Takes a datagram of the call, the buffer is reused after the call returns.
+		 */
+		void received(byte[] packet, int length);
+
+		/**
+		 * No datagram of the call arrived for {@link RtpReactor#IDLE_TIMEOUT} since the last one.
+		 */
+		void idle();
+	}
+
+	private static class Target {
+		final Receiver receiver;
+		final InetSocketAddress remote;
+		// Actual source of the media, null until a datagram of the call arrived
+		volatile SocketAddress latched = null;
+		long lastReceived = 0;
+		boolean idle = true;
+
+		Target(Receiver receiver, InetSocketAddress remote) {
+			this.receiver = receiver;
+			this.remote = remote;
+		}
+	}
+
+	private final int port;
+	private final DatagramChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+	private final List<Target> targets = new CopyOnWriteArrayList<>();
+	private final Map<SocketAddress, Target> byAddress = new ConcurrentHashMap<>();
+	private final Map<Long, Target> bySsrc = new ConcurrentHashMap<>();
+	private long lastSweep = 0;
+	private long dropped = 0;
+
+	/**
+	 * @return the demultiplexer of the local port, bound and receiving from the first call
+	 */
+	public static synchronized RtpDemultiplexer getInstance(int port) throws IOException {
+		RtpDemultiplexer instance = instances.get(port);
+		if (instance == null) {
+			instance = new RtpDemultiplexer(port);
+			instances.put(port, instance);
+		}
+		return instance;
+	}
+
+	private RtpDemultiplexer(int port) throws IOException {
+		this.port = port;
+		channel = RtpReactor.openChannel(port);
+		RtpReactor.getInstance().register(channel, this);
+		println("RtpDemultiplexer", "Receiving on shared port " + port);
+	}
+
+	/**
+	 * @return the shared channel, the calls send from it too so their source port is the one in their SDP
+	 */
+	public DatagramChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Starts passing the datagrams of the remote party to the receiver.
+	 *
+	 * @param remote
+	 *            address the remote party announced in its SDP
+	 */
+	public void register(InetSocketAddress remote, Receiver receiver) {
+		Target target = new Target(receiver, remote);
+		targets.add(target);
+		Target previous = byAddress.put(remote, target);
+		if (previous != null) {
+			log.warn("Port {}: {} was used by another call", port, remote);
+		}
+		println("register", "port " + port + " calls: " + targets.size() + ", remote " + remote);
+	}
+
+	/**
+	 * Stops passing datagrams to the receiver, returns when it is not called any more.
+	 */
+	public void unregister(Receiver receiver) {
+		for (Target target : targets) {
+			if (target.receiver == receiver) {
+				targets.remove(target);
+				byAddress.values().removeIf(t -> t == target);
+				bySsrc.values().removeIf(t -> t == target);
+			}
+		}
+		RtpReactor.getInstance().await(channel);
+		println("unregister", "port " + port + " calls: " + targets.size() + ", dropped " + dropped);
+	}
+
+	@Override
+	public boolean receive() throws IOException {
+		buffer.clear();
+		SocketAddress source = channel.receive(buffer);
+		if (source == null) {
+			return false;
+		}
+		byte[] packet = buffer.array();
+		int length = buffer.position();
+		Target target = byAddress.get(source);
+		if (target == null) {
+			target = find((InetSocketAddress) source, packet, length);
+		} else if (target.latched == null) {
+			// Media from the SDP address, the call is no candidate for latching any more
+			target.latched = source;
+		}
+		long now = System.nanoTime();
+		if (target == null) {
+			dropped++;
+		} else {
+			if (length >= 12 && bySsrc.size() < targets.size() * 4) {
+				bySsrc.putIfAbsent(getSsrc(packet, length), target);
+			}
+			target.lastReceived = now;
+			target.idle = false;
+			target.receiver.received(packet, length);
+		}
+		if (now - lastSweep >= IDLE_TIMEOUT_NANOS) {
+			sweep(now, false);
+		}
+		return true;
+	}
+
+	// A datagram from a source not seen yet: a call latching its actual address, or changing it
+	private Target find(InetSocketAddress source, byte[] packet, int length) {
+		Target target = null;
+		if (length >= 12) {
+			target = bySsrc.get(getSsrc(packet, length));
+			if (target != null && !target.remote.getAddress().equals(source.getAddress())) {
+				// Known SSRC from another host, not taken over
+				return null;
+			}
+		}
+		if (target == null) {
+			for (Target t : targets) {
+				if (t.latched == null && t.remote.getAddress().equals(source.getAddress())) {
+					if (target != null) {
+						// Several calls with this host have not received yet, the packet can't be told apart
+						return null;
+					}
+					target = t;
+				}
+			}
+		}
+		if (target != null) {
+			SocketAddress previous = target.latched;
+			if (previous != null && !previous.equals(target.remote)) {
+				byAddress.remove(previous, target);
+			}
+			target.latched = source;
+			byAddress.put(source, target);
+			println("find", "port " + port + ": " + source + " latched to the call of " + target.remote);
+		}
+		return target;
+	}
+
+	@Override
+	public void idle() {
+		// Nothing arrived on the port for the timeout, so from none of the calls
+		sweep(System.nanoTime(), true);
+	}
+
+	private void sweep(long now, boolean all) {
+		lastSweep = now;
+		for (Target target : targets) {
+			if (!target.idle && (all || now - target.lastReceived >= IDLE_TIMEOUT_NANOS)) {
+				target.idle = true;
+				target.receiver.idle();
+			}
+		}
+	}
+
+	// SSRC of the RTP packet, or of the sender of the RTCP packet
+	private static long getSsrc(byte[] packet, int length) {
+		int i = RtcpSession.isRtcp(packet, length) ? 4 : 8;
+		return (packet[i] & 0xFFL) << 24 | (packet[i + 1] & 0xFF) << 16 | (packet[i + 2] & 0xFF) << 8 | packet[i + 3] & 0xFF;
+	}
+
+	private static void println(String method, String message) {
+		log.debug("RtpDemultiplexer - " + method + " -> " + message);
+	}
+}
@@ -0,0 +1,292 @@
+package org.red5.sip.net.rtp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared receiving engine of the RTP and RTCP sockets of all calls, a small fixed pool of threads each waiting on a
+ * {@link Selector}.
+ * <p>
+ * Sockets are opened as non-blocking {@link DatagramChannel}s and registered with a {@link Handler}, which reads the
+ * pending datagrams when the channel is readable and pushes them into the call pipeline. A channel is assigned to the
+ * least loaded worker. Unregistering takes effect at once, the channel can be closed and its port bound again right
+ * after.
+ */
+public class RtpReactor {
+	protected static Logger log = LoggerFactory.getLogger(RtpReactor.class);
+
+	/** Number of selector threads, 0 means one per two available processors */
+	public static int threads = 0;
+
+	/** Time without datagrams after which a handler is told its channel is idle [milliseconds] */
+	public static final int IDLE_TIMEOUT = 200;
+
+	// Datagrams read from one channel before the others are served
+	private static final int MAX_READS = 32;
+
+	private static RtpReactor instance = null;
+
+	/**
+	 * Receiver of the datagrams of a channel, called by the worker thread of the channel only.
+	 */
+	public interface Handler {
+		/**
+		 * Reads one pending datagram.
+		 *
+		 * @return false when no datagram was pending
+		 */
+		boolean receive() throws IOException;
+
+		/**
+		 * No datagram arrived for {@link RtpReactor#IDLE_TIMEOUT} since the last one.
+		 */
+		void idle();
+	}
+
+	private final Worker[] workers;
+
+	public static synchronized RtpReactor getInstance() {
+		if (instance == null) {
+			int count = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+			try {
+				instance = new RtpReactor(count);
+			} catch (IOException e) {
+				throw new IllegalStateException("Can't open selector", e);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Opens a channel bound to the local port, ready to be registered.
+	 */
+	public static DatagramChannel openChannel(int port) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			channel.bind(new InetSocketAddress(port));
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	private RtpReactor(int count) throws IOException {
+		workers = new Worker[count];
+		for (int i = 0; i < count; i++) {
+			workers[i] = new Worker("RtpReactor worker " + i);
+			workers[i].start();
+		}
+		println("RtpReactor", "Started " + count + " selector threads");
+	}
+
+	/**
+	 * Starts receiving on the channel, returns once the worker registered it so it can be unregistered at once.
+	 */
+	public void register(DatagramChannel channel, Handler handler) throws IOException {
+		channel.configureBlocking(false);
+		Worker worker;
+		synchronized (this) {
+			worker = workers[0];
+			for (Worker w : workers) {
+				if (w.channels < worker.channels) {
+					worker = w;
+				}
+			}
+			worker.channels++;
+		}
+		final Worker selected = worker;
+		selected.runAndWait(() -> {
+			try {
+				channel.register(selected.selector, SelectionKey.OP_READ, new Registration(handler));
+			} catch (IOException e) {
+				synchronized (this) {
+					selected.channels--;
+				}
+				log.error("Can't register channel {}", channel, e);
+			}
+		});
+		println("register", worker.getName() + " channels: " + worker.channels);
+	}
+
+	/**
+	 * Stops receiving on the channel and returns once the worker released it, then the channel can be closed.
+	 */
+	public void unregister(DatagramChannel channel) {
+		for (Worker worker : workers) {
+			SelectionKey key = channel.keyFor(worker.selector);
+			if (key == null) {
+				continue;
+			}
+			synchronized (this) {
+				worker.channels--;
+			}
+			worker.runAndWait(() -> {
+				key.cancel();
+				try {
+					// Deregisters the cancelled key, a channel closed later is closed at once
+					worker.selector.selectNow();
+				} catch (IOException e) {
+					log.error("Error deregistering channel", e);
+				}
+			});
+			println("unregister", worker.getName() + " channels: " + worker.channels);
+			return;
+		}
+	}
+
+	/**
+	 * Returns once the worker of the channel finished the datagrams it was handling, so a handler removed from a
+	 * shared channel is not called any more.
+	 */
+	public void await(DatagramChannel channel) {
+		for (Worker worker : workers) {
+			if (channel.keyFor(worker.selector) != null) {
+				worker.runAndWait(() -> {
+				});
+				return;
+			}
+		}
+	}
+
+	private static class Registration {
+		final Handler handler;
+		long lastReceived = 0;
+		boolean idle = true;
+
+		Registration(Handler handler) {
+			this.handler = handler;
+		}
+	}
+
+	private static class Worker extends Thread {
+		private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT);
+
+		final Selector selector;
+		final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		// Guarded by the reactor
+		int channels = 0;
+		// When the next handler may become idle, 0 if none is receiving [nanoseconds]
+		private long nextIdle = 0;
+
+		Worker(String name) throws IOException {
+			super(name);
+			selector = Selector.open();
+			setDaemon(true);
+			setPriority(Thread.MAX_PRIORITY);
+		}
+
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		// Runs the task in the worker and waits for it
+		void runAndWait(Runnable task) {
+			if (Thread.currentThread() == this) {
+				task.run();
+				return;
+			}
+			CountDownLatch done = new CountDownLatch(1);
+			execute(() -> {
+				task.run();
+				done.countDown();
+			});
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (!isInterrupted()) {
+				try {
+					long timeout = 0;
+					if (nextIdle != 0) {
+						timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextIdle - System.nanoTime()));
+					}
+					selector.select(timeout);
+					Runnable task;
+					while ((task = tasks.poll()) != null) {
+						task.run();
+					}
+					long now = System.nanoTime();
+					Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+					while (selected.hasNext()) {
+						SelectionKey key = selected.next();
+						selected.remove();
+						if (key.isValid()) {
+							receive((Registration) key.attachment(), now);
+						}
+					}
+					if (nextIdle != 0 && now - nextIdle >= 0) {
+						idle(now);
+					}
+				} catch (Exception e) {
+					log.error("Error in selector loop", e);
+				}
+			}
+		}
+
+		private void receive(Registration registration, long now) {
+			int reads = 0;
+			try {
+				while (reads < MAX_READS && registration.handler.receive()) {
+					reads++;
+				}
+			} catch (Exception e) {
+				log.error("Error receiving", e);
+			}
+			if (reads > 0) {
+				registration.lastReceived = now;
+				registration.idle = false;
+				if (nextIdle == 0) {
+					nextIdle = now + IDLE_TIMEOUT_NANOS;
+				}
+			}
+		}
+
+		// Tells the handlers idle since the timeout, finds when the next one may be
+		private void idle(long now) {
+			nextIdle = 0;
+			for (SelectionKey key : selector.keys()) {
+				if (!key.isValid()) {
+					continue;
+				}
+				Registration registration = (Registration) key.attachment();
+				if (registration.idle) {
+					continue;
+				}
+				long deadline = registration.lastReceived + IDLE_TIMEOUT_NANOS;
+				if (now - deadline >= 0) {
+					registration.idle = true;
+					try {
+						registration.handler.idle();
+					} catch (Exception e) {
+						log.error("Error in idle handler", e);
+					}
+				} else if (nextIdle == 0 || deadline - nextIdle < 0) {
+					nextIdle = deadline;
+				}
+			}
+		}
+	}
+
+	private static void println(String method, String message) {
+		log.debug("RtpReactor - " + method + " -> " + message);
+	}
+}
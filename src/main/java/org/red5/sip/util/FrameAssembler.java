@@ -0,0 +1,68 @@
+package org.red5.sip.util;
+
+import org.red5.codecs.SIPCodec;
+
+/**
+ * Re-blocks PCM of any block size, e.g. decoded or resampled Nellymoser packets, into frames of the outgoing codec
+ * and encodes them directly into a packet buffer.
+ * <p>
+ * No memory is allocated after construction. Not thread safe.
+ */
+public class FrameAssembler {
+	private final SIPCodec codec;
+	private final float[] frame;
+	private int length = 0;
+
+	/**
+	 * Constructs a FrameAssembler for frames of {@link SIPCodec#getOutgoingDecodedFrameSize()} samples.
+	 */
+	public FrameAssembler(SIPCodec codec) {
+		this.codec = codec;
+		this.frame = new float[codec.getOutgoingDecodedFrameSize()];
+	}
+
+	/**
+	 * Appends samples to the current frame until it is complete.
+	 *
+	 * @return number of samples taken from pcm, less than count when the frame got complete
+	 */
+	public int push(float[] pcm, int offset, int count) {
+		int copy = Math.min(count, frame.length - length);
+		System.arraycopy(pcm, offset, frame, length, copy);
+		length += copy;
+		return copy;
+	}
+
+	public boolean isFrameComplete() {
+		return length == frame.length;
+	}
+
+	/**
+	 * @return the samples of the current frame, valid up to {@link #getLength()}
+	 */
+	public float[] getFrame() {
+		return frame;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Encodes the complete frame into buffer at offset and starts a new frame.
+	 *
+	 * @return number of bytes written
+	 */
+	public int encode(byte[] buffer, int offset) {
+		int encodedBytes = codec.pcmToCodec(frame, buffer, offset);
+		length = 0;
+		return encodedBytes;
+	}
+
+	/**
+	 * Discards the current frame.
+	 */
+	public void reset() {
+		length = 0;
+	}
+}
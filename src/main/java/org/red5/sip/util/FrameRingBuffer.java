@@ -0,0 +1,206 @@
+package org.red5.sip.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer of fixed size, timestamped frames.
+ * <p>
+ * The producer owns the tail index, the consumer owns the head index. To drop the oldest frame on overflow the
+ * producer also advances the head with a CAS; the consumer copies a frame first and then commits it with a CAS on
+ * the head, discarding the copy when the producer has dropped (and possibly overwritten) that frame meanwhile.
+ * <p>
+ * Both indices are kept on separate cache lines. Counters are written by a single thread each and can be read from
+ * any thread.
+ */
+public class FrameRingBuffer {
+	public static enum OverflowPolicy {
+		/** Overwrite the oldest queued frame */
+		DROP_OLDEST,
+		/** Discard the frame being pushed */
+		DROP_NEWEST,
+		/**
+		 * Skip every {@link FrameRingBuffer#COMPRESS_INTERVAL}th frame while the buffer is above its high watermark,
+		 * drop the oldest frame when full
+		 */
+		TIME_COMPRESS;
+
+		/**
+		 * Parses a policy name such as "drop-oldest" or "TIME_COMPRESS".
+		 */
+		public static OverflowPolicy parse(String name) {
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		}
+	}
+
+	/** One of this many frames is skipped while time compressing */
+	public static final int COMPRESS_INTERVAL = 8;
+
+	// Indices are 128 bytes apart to avoid false sharing
+	private static final int PAD = 16;
+	private static final int HEAD = PAD;
+	private static final int TAIL = 2 * PAD;
+
+	private final AtomicLongArray indices = new AtomicLongArray(3 * PAD);
+	private final byte[] frames;
+	private final long[] timestamps;
+	private final int frameSize;
+	private final int capacity;
+	private final int mask;
+	private final int highWatermark;
+	private final OverflowPolicy policy;
+
+	// Producer owned
+	private volatile long overflows = 0;
+	// Consumer owned
+	private volatile long underflows = 0;
+	private volatile long compressed = 0;
+	private int compressCounter = 0;
+	private long timestamp = 0;
+
+	/**
+	 * Constructs a FrameRingBuffer.
+	 *
+	 * @param frameSize
+	 *            size of each frame [bytes]
+	 * @param capacity
+	 *            minimum number of frames, rounded up to a power of two
+	 * @param policy
+	 *            what to do when the producer outpaces the consumer
+	 */
+	public FrameRingBuffer(int frameSize, int capacity, OverflowPolicy policy) {
+		if (frameSize <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException("Invalid ring buffer size: " + capacity + "x" + frameSize);
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.capacity = size;
+		this.mask = this.capacity - 1;
+		this.frameSize = frameSize;
+		this.frames = new byte[this.capacity * frameSize];
+		this.timestamps = new long[this.capacity];
+		this.highWatermark = this.capacity / 4;
+		this.policy = policy;
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Queues a frame of {@link #getFrameSize()} bytes. Producer thread only.
+	 *
+	 * @return false if a frame was dropped because the buffer was full
+	 */
+	public boolean push(byte[] src, int offset) {
+		return push(src, offset, 0);
+	}
+
+	/**
+	 * Queues a frame of {@link #getFrameSize()} bytes with its timestamp. Producer thread only.
+	 *
+	 * @return false if a frame was dropped because the buffer was full
+	 */
+	public boolean push(byte[] src, int offset, long timestamp) {
+		long tail = indices.get(TAIL);
+		boolean dropped = false;
+		long head;
+		while (!dropped && tail - (head = indices.get(HEAD)) >= capacity) {
+			if (policy == OverflowPolicy.DROP_NEWEST) {
+				overflows++;
+				return false;
+			}
+			// Fails only when the consumer has taken a frame meanwhile
+			if (indices.compareAndSet(HEAD, head, head + 1)) {
+				overflows++;
+				dropped = true;
+			}
+		}
+		System.arraycopy(src, offset, frames, (int) (tail & mask) * frameSize, frameSize);
+		timestamps[(int) (tail & mask)] = timestamp;
+		indices.lazySet(TAIL, tail + 1);
+		return !dropped;
+	}
+
+	/**
+	 * Takes the oldest frame. Consumer thread only.
+	 *
+	 * @return false if the buffer was empty
+	 */
+	public boolean take(byte[] dst, int offset) {
+		while (true) {
+			long head = indices.get(HEAD);
+			long available = indices.get(TAIL) - head;
+			if (available <= 0) {
+				underflows++;
+				return false;
+			}
+			if (policy == OverflowPolicy.TIME_COMPRESS && available > highWatermark
+					&& ++compressCounter % COMPRESS_INTERVAL == 0 && available > 1) {
+				if (indices.compareAndSet(HEAD, head, head + 1)) {
+					compressed++;
+				}
+				continue;
+			}
+			System.arraycopy(frames, (int) (head & mask) * frameSize, dst, offset, frameSize);
+			long frameTimestamp = timestamps[(int) (head & mask)];
+			if (indices.compareAndSet(HEAD, head, head + 1)) {
+				timestamp = frameTimestamp;
+				return true;
+			}
+			// The frame was dropped by the producer while being copied
+		}
+	}
+
+	/**
+	 * @return timestamp of the frame last taken. Consumer thread only.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return number of queued frames
+	 */
+	public int available() {
+		long head = indices.get(HEAD);
+		return (int) Math.max(0, Math.min(capacity, indices.get(TAIL) - head));
+	}
+
+	/**
+	 * @return fill level between 0 and 1
+	 */
+	public float usage() {
+		return available() * 1.0f / capacity;
+	}
+
+	/** Returns the number of frames dropped on overflow */
+	public long getOverflowCount() {
+		return overflows;
+	}
+
+	/** Returns the number of reads from an empty buffer */
+	public long getUnderflowCount() {
+		return underflows;
+	}
+
+	/** Returns the number of frames skipped by time compression */
+	public long getCompressedCount() {
+		return compressed;
+	}
+
+	@Override
+	public String toString() {
+		return "frames: " + available() + "/" + capacity + ", overflows: " + getOverflowCount() + ", underflows: "
+				+ getUnderflowCount() + ", compressed: " + getCompressedCount();
+	}
+}
@@ -0,0 +1,137 @@
+package org.red5.sip.util;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the buffering delay needed to absorb the arrival jitter of a media stream.
+ * <p>
+ * For every arrival the transit time (arrival time minus media timestamp) is recorded in a sliding window. The target
+ * delay is a percentile of the transit times above the window minimum, bounded by a minimum and a maximum. It grows
+ * at once when the jitter increases and shrinks gradually when the network calms down and the bursts leave the
+ * window. The RFC 3550 interarrival jitter is tracked as well.
+ * <p>
+ * {@link #update(long, long)} must be called from a single thread, the results can be read from any thread. All
+ * times share one unit, e.g. microseconds.
+ */
+public class JitterEstimator {
+	/** Arrivals between two computations of the target delay */
+	private static final int RECOMPUTE_INTERVAL = 8;
+	/** Fraction of the excess target removed per computation */
+	private static final int SHRINK_DIVISOR = 8;
+
+	private final long[] transits;
+	private final long[] sorted;
+	private final double percentile;
+	private final long minDelay;
+	private final long maxDelay;
+
+	private int count = 0;
+	private int position = 0;
+	private long updates = 0;
+	private boolean hasPrevious = false;
+	private long previousTransit = 0;
+
+	private volatile long target;
+	private volatile long variation = 0;
+	private volatile double jitter = 0;
+
+	/**
+	 * Constructs a JitterEstimator.
+	 *
+	 * @param window
+	 *            number of arrivals taken into account
+	 * @param percentile
+	 *            fraction of arrivals the target delay must absorb, e.g. 0.95
+	 * @param minDelay
+	 *            lower bound of the target delay
+	 * @param maxDelay
+	 *            upper bound of the target delay
+	 * @param initialDelay
+	 *            target delay until enough arrivals were seen
+	 */
+	public JitterEstimator(int window, double percentile, long minDelay, long maxDelay, long initialDelay) {
+		if (window <= 0 || minDelay > maxDelay) {
+			throw new IllegalArgumentException("Invalid jitter estimator: window " + window + ", bounds " + minDelay
+					+ ".." + maxDelay);
+		}
+		this.transits = new long[window];
+		this.sorted = new long[window];
+		this.percentile = Math.max(0, Math.min(1, percentile));
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+		this.target = clamp(initialDelay);
+	}
+
+	private long clamp(long delay) {
+		return Math.max(minDelay, Math.min(maxDelay, delay));
+	}
+
+	/**
+	 * Records an arrival.
+	 *
+	 * @param timestamp
+	 *            media timestamp of the arrived data
+	 * @param arrival
+	 *            local arrival time
+	 */
+	public void update(long timestamp, long arrival) {
+		long transit = arrival - timestamp;
+		if (hasPrevious) {
+			jitter += (Math.abs(transit - previousTransit) - jitter) / 16;
+		}
+		previousTransit = transit;
+		hasPrevious = true;
+
+		transits[position] = transit;
+		position = (position + 1) % transits.length;
+		if (count < transits.length) {
+			count++;
+		}
+		if (++updates % RECOMPUTE_INTERVAL == 0) {
+			recompute();
+		}
+	}
+
+	private void recompute() {
+		System.arraycopy(transits, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+		long variation = sorted[(int) (percentile * (count - 1))] - sorted[0];
+		this.variation = variation;
+		long desired = clamp(variation);
+		long current = target;
+		if (desired >= current) {
+			target = desired;
+		} else {
+			target = Math.max(desired, current - Math.max(1, (current - desired) / SHRINK_DIVISOR));
+		}
+	}
+
+	/**
+	 * Forgets the arrival history, e.g. after the stream was interrupted. The target delay is kept.
+	 */
+	public void reset() {
+		count = 0;
+		position = 0;
+		hasPrevious = false;
+	}
+
+	/** Returns the buffering delay to aim for */
+	public long getTarget() {
+		return target;
+	}
+
+	/** Returns the last measured percentile of the transit time variation */
+	public long getVariation() {
+		return variation;
+	}
+
+	/** Returns the RFC 3550 interarrival jitter */
+	public long getJitter() {
+		return (long) jitter;
+	}
+
+	@Override
+	public String toString() {
+		return "target: " + getTarget() + ", variation: " + getVariation() + ", jitter: " + getJitter();
+	}
+}
@@ -0,0 +1,168 @@
+package org.red5.sip.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Media clock producing ticks on absolute {@link System#nanoTime()} deadlines.
+ * <p>
+ * Deadlines are derived from the start time and the tick period only, so sleep
+ * inaccuracies never accumulate into drift. When the clock falls behind (e.g.
+ * after a GC pause) the missed ticks are delivered back-to-back, but at most
+ * {@link #getMaxCatchUpTicks()} of them; older ticks are skipped and the clock
+ * stays aligned to its original grid.
+ * <p>
+ * Statistics are written by the ticking thread only and can be read from any
+ * thread.
+ */
+public class MediaClock {
+	/** Lateness above which a tick is counted as late [nanoseconds] */
+	private static final long LATE_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(2);
+
+	private static final int DEFAULT_MAX_CATCH_UP_TICKS = 3;
+
+	private final long period;
+	private final int maxCatchUpTicks;
+	private long deadline;
+	private boolean started = false;
+
+	private volatile long ticks = 0;
+	private volatile long lateTicks = 0;
+	private volatile long skippedTicks = 0;
+	private volatile long totalLateness = 0;
+	private volatile long maxLateness = 0;
+
+	/**
+	 * Constructs a MediaClock.
+	 *
+	 * @param periodMs
+	 *            tick period (packetization) [milliseconds]
+	 */
+	public MediaClock(long periodMs) {
+		this(periodMs, DEFAULT_MAX_CATCH_UP_TICKS);
+	}
+
+	/**
+	 * Constructs a MediaClock.
+	 *
+	 * @param periodMs
+	 *            tick period (packetization) [milliseconds]
+	 * @param maxCatchUpTicks
+	 *            maximum number of missed ticks delivered without waiting
+	 */
+	public MediaClock(long periodMs, int maxCatchUpTicks) {
+		if (periodMs <= 0) {
+			throw new IllegalArgumentException("Invalid clock period: " + periodMs);
+		}
+		this.period = TimeUnit.MILLISECONDS.toNanos(periodMs);
+		this.maxCatchUpTicks = Math.max(1, maxCatchUpTicks);
+	}
+
+	/** Starts the clock, the first tick is due immediately. */
+	public void start() {
+		start(System.nanoTime());
+	}
+
+	/** Starts the clock with the first tick due at the given time. */
+	public void start(long firstDeadline) {
+		deadline = firstDeadline;
+		started = true;
+	}
+
+	public boolean isStarted() {
+		return started;
+	}
+
+	/** Returns the deadline of the next tick [System.nanoTime() based] */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public long getPeriodNanos() {
+		return period;
+	}
+
+	public int getMaxCatchUpTicks() {
+		return maxCatchUpTicks;
+	}
+
+	/**
+	 * Parks the calling thread until the next tick is due.
+	 *
+	 * @return false if the thread was interrupted while waiting
+	 */
+	public boolean awaitTick() {
+		if (!started) {
+			start();
+		}
+		long wait;
+		while ((wait = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(this, wait);
+			if (Thread.interrupted()) {
+				return false;
+			}
+		}
+		tick(System.nanoTime());
+		return true;
+	}
+
+	/**
+	 * Accounts the tick due at the current deadline and advances the deadline.
+	 * Must be called only when the tick is due (now &gt;= deadline).
+	 *
+	 * @param now
+	 *            current System.nanoTime()
+	 */
+	public void tick(long now) {
+		long lateness = now - deadline;
+		if (lateness >= maxCatchUpTicks * period) {
+			// Too far behind: drop the oldest ticks, keep the grid phase
+			long missed = lateness / period - maxCatchUpTicks + 1;
+			deadline += missed * period;
+			skippedTicks += missed;
+			lateness = now - deadline;
+		}
+		if (lateness > LATE_THRESHOLD) {
+			lateTicks++;
+		}
+		if (lateness > maxLateness) {
+			maxLateness = lateness;
+		}
+		totalLateness += lateness;
+		ticks++;
+		deadline += period;
+	}
+
+	/** Returns the number of ticks delivered */
+	public long getTickCount() {
+		return ticks;
+	}
+
+	/** Returns the number of ticks delivered more than 2 ms after their deadline */
+	public long getLateTickCount() {
+		return lateTicks;
+	}
+
+	/** Returns the number of ticks dropped while catching up */
+	public long getSkippedTickCount() {
+		return skippedTicks;
+	}
+
+	/** Returns the maximum tick lateness [microseconds] */
+	public long getMaxLatenessMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxLateness);
+	}
+
+	/** Returns the average tick lateness [microseconds] */
+	public long getAverageLatenessMicros() {
+		long count = ticks;
+		return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLateness / count);
+	}
+
+	@Override
+	public String toString() {
+		return "ticks: " + getTickCount() + ", late: " + getLateTickCount() + ", skipped: " + getSkippedTickCount()
+				+ ", avg lateness: " + getAverageLatenessMicros() + "us, max lateness: " + getMaxLatenessMicros()
+				+ "us";
+	}
+}
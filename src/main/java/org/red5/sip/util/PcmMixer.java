@@ -0,0 +1,156 @@
+package org.red5.sip.util;
+
+/**
+ * Integer PCM mixer with a look-ahead limiter and automatic gain control.
+ * <p>
+ * Frames are summed into an int accumulator, the output is delayed by one {@link #BLOCK} so the gain is already
+ * reduced when a peak arrives. Gains are updated once per block with attack/release smoothing and ramped linearly
+ * over the block, the output is saturated to the 16 bit range. No memory is allocated after construction and the
+ * per-sample loops are plain array loops the JIT can vectorize.
+ */
+public class PcmMixer {
+	/** Gain update granularity and look-ahead [samples] */
+	public static final int BLOCK = 16;
+
+	/** Output peak ceiling, 98% of full scale */
+	private static final float CEILING = 32767 * .98f;
+	/** Peak level the AGC aims for, -6 dBFS */
+	private static final float TARGET_LEVEL = 16384;
+	/** Level below which the AGC gain is held to avoid boosting background noise */
+	private static final float GATE_LEVEL = 1000;
+	private static final float MIN_AGC_GAIN = .5f;
+	private static final float MAX_AGC_GAIN = 4f;
+
+	// Time constants [milliseconds]
+	private static final float LIMITER_RELEASE = 80;
+	private static final float LEVEL_ATTACK = 10;
+	private static final float LEVEL_RELEASE = 500;
+	private static final float AGC_SMOOTHING = 1500;
+
+	private final int frameSize;
+	private final int[] accumulator;
+	private final int[] delay = new int[BLOCK];
+
+	private final float limiterRelease;
+	private final float levelAttack;
+	private final float levelRelease;
+	private final float agcSmoothing;
+
+	private float gain = 1;
+	private float lastLimit = 1;
+	private float level = 0;
+	private float agcGain = 1;
+
+	/**
+	 * Constructs a PcmMixer.
+	 *
+	 * @param frameSize
+	 *            samples per frame, a multiple of {@link #BLOCK}
+	 * @param sampleRate
+	 *            sample rate of the mixed audio [Hz]
+	 */
+	public PcmMixer(int frameSize, int sampleRate) {
+		if (frameSize % BLOCK != 0) {
+			throw new IllegalArgumentException("Frame size must be a multiple of " + BLOCK + ": " + frameSize);
+		}
+		this.frameSize = frameSize;
+		this.accumulator = new int[frameSize];
+		float blockMs = BLOCK * 1000f / sampleRate;
+		limiterRelease = coefficient(blockMs, LIMITER_RELEASE);
+		levelAttack = coefficient(blockMs, LEVEL_ATTACK);
+		levelRelease = coefficient(blockMs, LEVEL_RELEASE);
+		agcSmoothing = coefficient(blockMs, AGC_SMOOTHING);
+	}
+
+	private static float coefficient(float blockMs, float timeConstantMs) {
+		return (float) (1 - Math.exp(-blockMs / timeConstantMs));
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * Starts a new frame with the given PCM (16 bit range).
+	 */
+	public void set(float[] pcm) {
+		for (int i = 0; i < frameSize; i++) {
+			accumulator[i] = (int) pcm[i];
+		}
+	}
+
+	/**
+	 * Adds PCM (16 bit range) to the current frame.
+	 */
+	public void add(float[] pcm) {
+		for (int i = 0; i < frameSize; i++) {
+			accumulator[i] += (int) pcm[i];
+		}
+	}
+
+	/**
+	 * Applies gain control to the current frame and writes it to out, one block delayed.
+	 */
+	public void mix(float[] out) {
+		for (int block = 0; block < frameSize; block += BLOCK) {
+			int peak = 0;
+			for (int i = block; i < block + BLOCK; i++) {
+				peak = Math.max(peak, Math.abs(accumulator[i]));
+			}
+
+			if (peak > level) {
+				level += (peak - level) * levelAttack;
+			} else {
+				level += (peak - level) * levelRelease;
+			}
+			if (level > GATE_LEVEL) {
+				float target = Math.max(MIN_AGC_GAIN, Math.min(MAX_AGC_GAIN, TARGET_LEVEL / level));
+				agcGain += (target - agcGain) * agcSmoothing;
+			}
+
+			// The gain must suit both the delayed block and the one ahead
+			float limit = peak * agcGain > CEILING ? CEILING / peak : agcGain;
+			float target = Math.min(limit, lastLimit);
+			lastLimit = limit;
+			float next = target < gain ? target : gain + (target - gain) * limiterRelease;
+
+			float step = (next - gain) / BLOCK;
+			float g = gain;
+			for (int i = 0; i < BLOCK; i++) {
+				g += step;
+				out[block + i] = Math.max(-32768, Math.min(32767, delay[i] * g));
+			}
+			gain = next;
+			System.arraycopy(accumulator, block, delay, 0, BLOCK);
+		}
+	}
+
+	/**
+	 * Writes the current frame to out with the current gain, one block delayed like {@link #mix(float[])}. Cheaper,
+	 * peaks are only saturated and the gains do not adapt.
+	 */
+	public void mixFixedGain(float[] out) {
+		float g = gain;
+		for (int block = 0; block < frameSize; block += BLOCK) {
+			for (int i = 0; i < BLOCK; i++) {
+				out[block + i] = Math.max(-32768, Math.min(32767, delay[i] * g));
+			}
+			System.arraycopy(accumulator, block, delay, 0, BLOCK);
+		}
+		lastLimit = g;
+	}
+
+	/**
+	 * Discards the delayed samples when nothing was mixed, gains are kept.
+	 */
+	public void idle() {
+		for (int i = 0; i < BLOCK; i++) {
+			delay[i] = 0;
+		}
+	}
+
+	/** Returns the current overall gain */
+	public float getGain() {
+		return gain;
+	}
+}
@@ -0,0 +1,233 @@
+package org.red5.sip.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.red5.codecs.SIPCodec;
+import org.red5.codecs.SIPCodecPCMA;
+import org.red5.codecs.SIPCodecPCMU;
+import org.red5.codecs.asao.Encoder;
+import org.red5.codecs.asao.EncoderMap;
+
+import com.laszlosystems.libresample4j.PolyphaseResampler;
+
+/**
+ * Converts the audio of a SIP call into frames RTMP clients can play.
+ * <p>
+ * G.711 is passed through, Flash plays µ-law and A-law at 8 kHz. Other codecs are decoded, resampled to 8 or 16 kHz
+ * when their rate differs and encoded to Nellymoser in frames of {@link #NELLYMOSER_DECODED_FRAME_SIZE} samples, so
+ * a packet yields no, one or several frames. A lost packet is replaced by the concealment of the codec. The decoded
+ * audio is classified by a {@link VoiceActivityDetector}, G.711 passed through is decoded for it too. One instance
+ * per call, no memory is allocated after construction. Not thread safe.
+ */
+public class RtmpAudioTranscoder {
+	public static final int NELLYMOSER_DECODED_FRAME_SIZE = 256;
+	public static final int NELLYMOSER_ENCODED_FRAME_SIZE = 64;
+
+	// FLV audio tag headers, mono 16 bit
+	private static final int FLV_PCMU = 0x82;
+	private static final int FLV_PCMA = 0x72;
+	private static final int FLV_NELLYMOSER_8K = 0x52;
+	private static final int FLV_NELLYMOSER_16K = 0x42;
+
+	private final SIPCodec codec;
+	private final boolean passthrough;
+	private final int audioTag;
+	private final int frameRate;
+	private final long frameDuration;
+
+	// Decoded packet at the codec rate, null when passing through without concealment nor detection
+	private final float[] decoded;
+	// Null when voice activity detection is disabled
+	private final VoiceActivityDetector detector;
+	private PolyphaseResampler resampler = null;
+	// Audio not encoded yet at the frame rate, its first sample plays at pcmTimestamp [microseconds]
+	private final float[] pcm;
+	private int pcmLength = 0;
+	private long pcmTimestamp = 0;
+
+	private final Encoder encoder;
+	private EncoderMap encoderMap = null;
+	private final byte[] frame;
+	private long frameTimestamp = 0;
+	private boolean framePending = false;
+	private boolean concealing = false;
+
+	/**
+	 * Constructs a RtmpAudioTranscoder.
+	 *
+	 * @param codec
+	 *            negotiated codec of the call, decodes the received payloads
+	 * @param passthrough
+	 *            whether G.711 is forwarded as is instead of transcoded
+	 * @param concealment
+	 *            whether {@link #conceal(long)} is used, G.711 passed through is then decoded to track its history
+	 */
+	public RtmpAudioTranscoder(SIPCodec codec, boolean passthrough, boolean concealment) {
+		this.codec = codec;
+		detector = VoiceActivityDetector.enabled ? new VoiceActivityDetector(codec.getSampleRate()) : null;
+		boolean pcmu = codec instanceof SIPCodecPCMU;
+		this.passthrough = passthrough && (pcmu || codec instanceof SIPCodecPCMA);
+		if (this.passthrough) {
+			audioTag = pcmu ? FLV_PCMU : FLV_PCMA;
+			frameRate = codec.getSampleRate();
+			frameDuration = TimeUnit.MILLISECONDS.toMicros(codec.getIncomingPacketization());
+			decoded = concealment || detector != null ? new float[codec.getIncomingDecodedFrameSize()] : null;
+			pcm = null;
+			encoder = null;
+			frame = new byte[codec.getIncomingEncodedFrameSize()];
+			return;
+		}
+		frameRate = codec.getSampleRate() > 8000 ? 16000 : 8000;
+		audioTag = frameRate == 8000 ? FLV_NELLYMOSER_8K : FLV_NELLYMOSER_16K;
+		frameDuration = NELLYMOSER_DECODED_FRAME_SIZE * 1000000L / frameRate;
+		decoded = new float[codec.getIncomingDecodedFrameSize()];
+		int resampledLength = decoded.length;
+		if (codec.getSampleRate() != frameRate) {
+			resampler = new PolyphaseResampler(true, codec.getSampleRate(), frameRate);
+			resampledLength = resampler.getMaxOutputLength(decoded.length);
+		}
+		pcm = new float[NELLYMOSER_DECODED_FRAME_SIZE + resampledLength];
+		encoder = new Encoder();
+		frame = new byte[NELLYMOSER_ENCODED_FRAME_SIZE];
+	}
+
+	/**
+	 * Takes a received payload.
+	 *
+	 * @param payload
+	 *            payload of {@link SIPCodec#getIncomingEncodedFrameSize()} bytes
+	 * @param timestamp
+	 *            RTMP timestamp of the payload [milliseconds]
+	 */
+	public void transcode(byte[] payload, long timestamp) {
+		if (passthrough) {
+			System.arraycopy(payload, 0, frame, 0, frame.length);
+			if (decoded != null) {
+				detect(codec.codecToPcm(frame, decoded));
+				if (concealing) {
+					// The frame cross-faded with the concealment
+					codec.pcmToCodec(decoded, frame);
+				}
+			}
+			concealing = false;
+			frameTimestamp = timestamp;
+			framePending = true;
+			return;
+		}
+		int length = codec.codecToPcm(payload, decoded);
+		detect(length);
+		append(length, timestamp);
+	}
+
+	/**
+	 * Replaces a lost payload by the concealment of the codec.
+	 *
+	 * @param timestamp
+	 *            RTMP timestamp of the lost payload [milliseconds]
+	 * @return false when the codec does not conceal, the loss leaves a gap
+	 */
+	public boolean conceal(long timestamp) {
+		if (decoded == null) {
+			return false;
+		}
+		int length = codec.concealToPcm(decoded);
+		if (length <= 0) {
+			return false;
+		}
+		detect(length);
+		if (passthrough) {
+			// G.711 is coded sample by sample, re-encoding does not disturb the encoder of the sending side
+			codec.pcmToCodec(decoded, frame);
+			concealing = true;
+			frameTimestamp = timestamp;
+			framePending = true;
+		} else {
+			append(length, timestamp);
+		}
+		return true;
+	}
+
+	private void detect(int length) {
+		if (detector != null) {
+			detector.process(decoded, length);
+		}
+	}
+
+	private void append(int length, long timestamp) {
+		if (pcmLength == 0) {
+			pcmTimestamp = TimeUnit.MILLISECONDS.toMicros(timestamp);
+		}
+		if (resampler != null) {
+			pcmLength += resampler.process(decoded, 0, length, pcm, pcmLength);
+		} else {
+			System.arraycopy(decoded, 0, pcm, pcmLength, length);
+			pcmLength += length;
+		}
+	}
+
+	/**
+	 * Prepares the next frame. Call until it returns false after each {@link #transcode(byte[], long)} or successful
+	 * {@link #conceal(long)}.
+	 *
+	 * @return whether {@link #getFrame()} holds a frame
+	 */
+	public boolean nextFrame() {
+		if (passthrough) {
+			boolean pending = framePending;
+			framePending = false;
+			return pending;
+		}
+		if (pcmLength < NELLYMOSER_DECODED_FRAME_SIZE) {
+			return false;
+		}
+		encoderMap = encoder.encode(encoderMap, pcm, 0, frame, 0);
+		frameTimestamp = TimeUnit.MICROSECONDS.toMillis(pcmTimestamp);
+		pcmLength -= NELLYMOSER_DECODED_FRAME_SIZE;
+		System.arraycopy(pcm, NELLYMOSER_DECODED_FRAME_SIZE, pcm, 0, pcmLength);
+		pcmTimestamp += frameDuration;
+		return true;
+	}
+
+	/**
+	 * @return the current frame, reused for the next one
+	 */
+	public byte[] getFrame() {
+		return frame;
+	}
+
+	/**
+	 * @return whether the audio is speech as of the current frame, always true without voice activity detection
+	 */
+	public boolean isVoice() {
+		return detector == null || detector.isVoice();
+	}
+
+	/**
+	 * @return RTMP timestamp of the current frame [milliseconds]
+	 */
+	public long getFrameTimestamp() {
+		return frameTimestamp;
+	}
+
+	/**
+	 * @return FLV audio tag header of the frames
+	 */
+	public int getAudioTag() {
+		return audioTag;
+	}
+
+	public boolean isPassthrough() {
+		return passthrough;
+	}
+
+	/** Returns the duration of a frame [microseconds] */
+	public long getFrameDuration() {
+		return frameDuration;
+	}
+
+	@Override
+	public String toString() {
+		return codec.getCodecName() + (passthrough ? " passed through" : " -> Nellymoser " + frameRate + " Hz")
+				+ (resampler != null ? ", resampling " + resampler : "") + (detector != null ? ", " + detector : "");
+	}
+}
@@ -0,0 +1,346 @@
+package org.red5.sip.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Jitter buffer of fixed size RTP payloads ordered by sequence number, for one producer (the receiving thread) and
+ * one consumer (the playout tick).
+ * <p>
+ * Packets are stored in the slot of their extended sequence number, so reordered packets are played in order and
+ * duplicates are recognized by the slot tag. Packets arriving after their turn are discarded as late, gaps at
+ * playout time are reported as lost. Playout starts once the buffered span reaches the target depth derived from
+ * the arrival jitter by a {@link JitterEstimator}; an underrun restarts the buffering and excess depth is reduced
+ * by skipping a packet now and then. A new SSRC restarts the buffer, so does a sequence jump once the packet after
+ * it follows (RFC 3550 A.1); a single packet far off the sequence is dropped.
+ * <p>
+ * Slots are published like a sequence lock: the producer invalidates the tag, writes the payload and sets the tag,
+ * the consumer checks the tag again after copying. Statistics can be read from any thread.
+ */
+public class RtpJitterBuffer {
+	/** Results of {@link #take(byte[], int)} */
+	public static final int NONE = 0;
+	public static final int PACKET = 1;
+	public static final int LOST = 2;
+
+	// Arrivals taken into account by the jitter estimation
+	private static final int JITTER_WINDOW = 128;
+	// Fraction of the arrivals the buffer absorbs
+	private static final double JITTER_PERCENTILE = .95;
+	// Packets played with excess depth before one is skipped
+	private static final int SHRINK_PACKETS = 50;
+
+	private final AtomicLongArray tags;
+	private final byte[] payloads;
+	private final int frameSize;
+	private final int capacity;
+	private final int mask;
+	private final int clockRate;
+	private final long packetDuration;
+	private final JitterEstimator jitter;
+
+	// Producer owned
+	private boolean synced = false;
+	private long ssrc = 0;
+	private long lastTimestamp = 0;
+	private long extendedTimestamp = 0;
+	private volatile long highest = -1;
+	// 16 bit sequence number that confirms a jump, -1 if none is pending
+	private int badSequence = -1;
+	// Set by the producer on a (re)start of the sequence, cleared by the consumer
+	private volatile boolean resync = false;
+	private volatile long first = 0;
+
+	// Consumer owned
+	private volatile long next = 0;
+	private volatile boolean playing = false;
+	private int excessPackets = 0;
+
+	private volatile long received = 0;
+	private volatile long duplicates = 0;
+	private volatile long late = 0;
+	private volatile long overflows = 0;
+	private volatile long strays = 0;
+	private volatile long resyncs = 0;
+	private volatile long played = 0;
+	private volatile long lost = 0;
+	private volatile long skipped = 0;
+	private volatile long underruns = 0;
+
+	/**
+	 * Constructs a RtpJitterBuffer.
+	 *
+	 * @param frameSize
+	 *            payload size [bytes]
+	 * @param capacity
+	 *            minimum number of packets, rounded up to a power of two
+	 * @param clockRate
+	 *            RTP timestamp rate [Hz]
+	 * @param packetization
+	 *            duration of a packet [milliseconds]
+	 * @param minDelay
+	 *            lower bound of the target delay [milliseconds]
+	 * @param maxDelay
+	 *            upper bound of the target delay [milliseconds]
+	 * @param initialDelay
+	 *            target delay until the jitter is known [milliseconds]
+	 */
+	public RtpJitterBuffer(int frameSize, int capacity, int clockRate, int packetization, int minDelay, int maxDelay,
+			int initialDelay) {
+		if (frameSize <= 0 || capacity <= 0 || clockRate <= 0 || packetization <= 0) {
+			throw new IllegalArgumentException("Invalid jitter buffer: " + capacity + "x" + frameSize + ", "
+					+ clockRate + " Hz, " + packetization + " ms");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.capacity = size;
+		this.mask = size - 1;
+		this.frameSize = frameSize;
+		this.clockRate = clockRate;
+		this.packetDuration = TimeUnit.MILLISECONDS.toMicros(packetization);
+		this.tags = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			tags.set(i, -1);
+		}
+		this.payloads = new byte[size * frameSize];
+		long toMicros = TimeUnit.MILLISECONDS.toMicros(1);
+		this.jitter = new JitterEstimator(JITTER_WINDOW, JITTER_PERCENTILE, minDelay * toMicros,
+				Math.min(maxDelay * toMicros, (size / 2 - 1) * packetDuration), initialDelay * toMicros);
+	}
+
+	/**
+	 * Stores a received packet. Producer only.
+	 *
+	 * @param sequenceNumber
+	 *            RTP sequence number
+	 * @param timestamp
+	 *            RTP timestamp
+	 * @param ssrc
+	 *            RTP synchronization source
+	 * @param src
+	 *            buffer holding the payload of {@link #getFrameSize()} bytes
+	 * @param offset
+	 *            offset of the payload
+	 * @return false if the packet was discarded as duplicate, late, too far ahead or off the sequence
+	 */
+	public boolean push(int sequenceNumber, long timestamp, long ssrc, byte[] src, int offset) {
+		long arrival = System.nanoTime() / 1000;
+		long highest = this.highest;
+		long seq;
+		if (!synced || ssrc != this.ssrc) {
+			seq = restart(sequenceNumber, ssrc);
+		} else {
+			// Nearest extension of the 16 bit sequence number
+			seq = highest + (short) (sequenceNumber - highest);
+			if (Math.abs(seq - highest) >= capacity) {
+				if (sequenceNumber != badSequence) {
+					// A stray packet, unless the next one follows it
+					badSequence = (sequenceNumber + 1) & 0xFFFF;
+					strays++;
+					return false;
+				}
+				seq = restart(sequenceNumber, ssrc);
+			}
+		}
+		extendedTimestamp += (int) (timestamp - lastTimestamp);
+		lastTimestamp = timestamp;
+		jitter.update(extendedTimestamp * 1000000 / clockRate, arrival);
+
+		if (!resync) {
+			long next = this.next;
+			if (seq < next) {
+				late++;
+				return false;
+			}
+			if (seq - next >= capacity) {
+				// The consumer did not keep up, the oldest slot would be overwritten
+				overflows++;
+				return false;
+			}
+		}
+		int slot = (int) (seq & mask);
+		if (tags.get(slot) == seq) {
+			duplicates++;
+			return false;
+		}
+		tags.set(slot, -1);
+		System.arraycopy(src, offset, payloads, slot * frameSize, frameSize);
+		tags.set(slot, seq);
+		if (seq > highest) {
+			this.highest = seq;
+		}
+		received++;
+		return true;
+	}
+
+	// Starts a new sequence at the given packet
+	private long restart(int sequenceNumber, long ssrc) {
+		if (synced) {
+			resyncs++;
+		}
+		synced = true;
+		this.ssrc = ssrc;
+		badSequence = -1;
+		// Keeps the extended numbers increasing, so stale slot tags never match
+		long seq = highest + capacity + 1;
+		seq += (sequenceNumber - seq) & 0xFFFF;
+		first = seq;
+		highest = seq - 1;
+		resync = true;
+		jitter.reset();
+		return seq;
+	}
+
+	/**
+	 * Takes the packet due next into dst. Consumer only.
+	 *
+	 * @return {@link #PACKET} when a packet was copied, {@link #LOST} when the packet due is missing and
+	 *         {@link #NONE} while buffering
+	 */
+	public int take(byte[] dst, int offset) {
+		if (resync) {
+			resync = false;
+			playing = false;
+			next = first;
+		}
+		long highest = this.highest;
+		if (!playing) {
+			if (highest - next + 1 < getTargetPackets()) {
+				return NONE;
+			}
+			// Sequence numbers missing before the talkspurt, e.g. of comfort noise, are not played
+			long seq = next;
+			while (seq < highest && tags.get((int) (seq & mask)) != seq) {
+				seq++;
+			}
+			next = seq;
+			playing = true;
+			excessPackets = 0;
+		}
+		if (next > highest) {
+			// Played out everything received, buffer again
+			playing = false;
+			underruns++;
+			return NONE;
+		}
+		long seq = next;
+		if (highest - seq + 1 > getTargetPackets() + 1) {
+			if (++excessPackets >= SHRINK_PACKETS) {
+				// Reduce the delay by one packet
+				excessPackets = 0;
+				skipped++;
+				seq++;
+			}
+		} else {
+			excessPackets = 0;
+		}
+		next = seq + 1;
+		int slot = (int) (seq & mask);
+		if (tags.get(slot) == seq) {
+			System.arraycopy(payloads, slot * frameSize, dst, offset, frameSize);
+			if (tags.get(slot) == seq) {
+				played++;
+				return PACKET;
+			}
+		}
+		lost++;
+		return LOST;
+	}
+
+	/**
+	 * @return number of packets the playout aims to buffer
+	 */
+	public int getTargetPackets() {
+		return (int) ((jitter.getTarget() + packetDuration - 1) / packetDuration) + 1;
+	}
+
+	/**
+	 * @return span of buffered sequence numbers ahead of the playout
+	 */
+	public int getDepth() {
+		long start = resync ? first : next;
+		return (int) Math.max(0, highest - start + 1);
+	}
+
+	public boolean isPlaying() {
+		return playing;
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** Returns the number of packets stored */
+	public long getReceivedCount() {
+		return received;
+	}
+
+	/** Returns the number of duplicate packets discarded */
+	public long getDuplicateCount() {
+		return duplicates;
+	}
+
+	/** Returns the number of packets discarded because their turn had passed */
+	public long getLateCount() {
+		return late;
+	}
+
+	/** Returns the number of packets missing at playout time */
+	public long getLostCount() {
+		return lost;
+	}
+
+	/** Returns the number of packets played */
+	public long getPlayedCount() {
+		return played;
+	}
+
+	/** Returns the number of packets skipped to reduce the delay */
+	public long getSkippedCount() {
+		return skipped;
+	}
+
+	/** Returns the number of times the buffer ran empty while playing */
+	public long getUnderrunCount() {
+		return underruns;
+	}
+
+	/** Returns the number of packets discarded because the buffer was full */
+	public long getOverflowCount() {
+		return overflows;
+	}
+
+	/** Returns the number of packets discarded as far off the sequence, without a following one */
+	public long getStrayCount() {
+		return strays;
+	}
+
+	/** Returns the number of sequence restarts after a new SSRC or a sequence jump */
+	public long getResyncCount() {
+		return resyncs;
+	}
+
+	/** Returns the RFC 3550 interarrival jitter [milliseconds] */
+	public long getJitterMillis() {
+		return TimeUnit.MICROSECONDS.toMillis(jitter.getJitter());
+	}
+
+	/** Returns the buffering delay aimed for [milliseconds] */
+	public long getTargetDelayMillis() {
+		return TimeUnit.MICROSECONDS.toMillis(jitter.getTarget());
+	}
+
+	@Override
+	public String toString() {
+		return "received: " + received + ", played: " + played + ", lost: " + lost + ", late: " + late
+				+ ", duplicates: " + duplicates + ", skipped: " + skipped + ", underruns: " + underruns
+				+ ", overflows: " + overflows + ", strays: " + strays + ", resyncs: " + resyncs + ", jitter: " + getJitterMillis()
+				+ "ms, target: " + getTargetDelayMillis() + "ms";
+	}
+}
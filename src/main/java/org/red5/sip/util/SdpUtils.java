@@ -1,10 +1,12 @@
 package org.red5.sip.util;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Vector;
 
 import org.red5.codecs.SIPCodec;
 import org.red5.codecs.SIPCodecFactory;
+import org.red5.sip.net.rtcp.RtcpSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zoolu.sdp.AttributeField;
@@ -47,17 +49,28 @@ public class SdpUtils {
 
 		printLog("getNegotiatedAudioCodec", "Init...");
 
-		rtpmap = negotiatedSDP.getMediaDescriptor(SIPCodec.MEDIA_TYPE_AUDIO).getAttribute(SIPCodec.ATTRIBUTE_RTPMAP)
-				.getAttributeValue();
+		Vector<AttributeField> rtpmaps = negotiatedSDP.getMediaDescriptor(SIPCodec.MEDIA_TYPE_AUDIO).getAttributes(
+				SIPCodec.ATTRIBUTE_RTPMAP);
 
-		printLog("getNegotiatedAudioCodec", "rtpmap = [" + rtpmap + "].");
+		for (Enumeration<AttributeField> attributesEnum = rtpmaps.elements(); attributesEnum.hasMoreElements();) {
 
-		if (!rtpmap.isEmpty()) {
+			rtpmap = attributesEnum.nextElement().getAttributeValue();
+
+			printLog("getNegotiatedAudioCodec", "rtpmap = [" + rtpmap + "].");
+
+			if (rtpmap.isEmpty()) {
+				continue;
+			}
 
 			payloadId = Integer.parseInt(rtpmap.substring(0, rtpmap.indexOf(" ")));
 
 			printLog("getNegotiatedAudioCodec", "payloadId = [" + payloadId + "].");
 
+			// Comfort noise is sent next to the audio codec
+			if (SIPCodecFactory.getInstance().isComfortNoise(payloadId)) {
+				continue;
+			}
+
 			sipCodec = SIPCodecFactory.getInstance().getSIPMediaCodec(payloadId);
 
 			if (sipCodec == null) {
@@ -68,6 +81,7 @@ public class SdpUtils {
 				printLog("getNegotiatedAudioCodec", "payloadType = " + sipCodec.getCodecId() + ", payloadName = "
 						+ sipCodec.getCodecName() + ".");
 			}
+			break;
 		}
 
 		printLog("getNegotiatedAudioCodec", "End...");
@@ -75,6 +89,48 @@ public class SdpUtils {
 		return sipCodec;
 	}
 
+	/**
+	 * @return Returns whether comfort noise was negotiated for the audio of current session.
+	 */
+	public static boolean isComfortNoiseNegotiated(SessionDescriptor negotiatedSDP) {
+		MediaDescriptor md = negotiatedSDP.getMediaDescriptor(SIPCodec.MEDIA_TYPE_AUDIO);
+		if (md == null || !SIPCodecFactory.getInstance().isComfortNoiseEnabled()) {
+			return false;
+		}
+		for (Enumeration<AttributeField> attributesEnum = md.getAttributes(SIPCodec.ATTRIBUTE_RTPMAP).elements(); attributesEnum
+				.hasMoreElements();) {
+			String payloadId = getPayloadIdFromAttribute(attributesEnum.nextElement());
+			if (!payloadId.isEmpty() && SIPCodecFactory.getInstance().isComfortNoise(Integer.parseInt(payloadId))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Returns whether RTCP is multiplexed with the RTP of the remote media, RFC 5761.
+	 */
+	public static boolean isRtcpMuxNegotiated(MediaDescriptor remoteDescriptor) {
+		return RtcpSession.enabled && RtcpSession.rtcpMux
+				&& remoteDescriptor.hasAttribute(RtcpSession.ATTRIBUTE_RTCP_MUX);
+	}
+
+	/**
+	 * @return Returns the RTCP port of the remote media: the "rtcp" attribute (RFC 3605) or the RTP port + 1.
+	 */
+	public static int getRtcpPort(MediaDescriptor remoteDescriptor) {
+		AttributeField rtcp = remoteDescriptor.getAttribute(RtcpSession.ATTRIBUTE_RTCP);
+		if (rtcp != null && rtcp.getAttributeValue() != null) {
+			String port = rtcp.getAttributeValue().trim().split(" ")[0];
+			try {
+				return Integer.parseInt(port);
+			} catch (NumberFormatException e) {
+				printLog("getRtcpPort", "Invalid rtcp attribute [" + rtcp.getAttributeValue() + "].");
+			}
+		}
+		return remoteDescriptor.getMedia().getPort() + 1;
+	}
+
 	/**
 	 *
 	 * @param userName
@@ -122,12 +178,24 @@ public class SdpUtils {
 							audioCodecsPrecedence);
 				}
 
-				for (int audioIndex = 0; audioIndex < audioCodecsNumber; audioIndex++) {
+				SIPCodec comfortNoiseCodec = SIPCodecFactory.getInstance().getComfortNoiseCodec();
+
+				if (comfortNoiseCodec != null) {
+
+					audioCodecs = Arrays.copyOf(audioCodecs, audioCodecs.length + 1);
+					audioCodecs[audioCodecs.length - 1] = comfortNoiseCodec;
+				}
+
+				for (int audioIndex = 0; audioIndex < audioCodecs.length; audioIndex++) {
+
+					if (audioCodecs[audioIndex] == null) {
+						continue;
+					}
 
 					String payloadId = String.valueOf(audioCodecs[audioIndex].getCodecId());
 					String rtpmapParamValue = payloadId;
 					rtpmapParamValue += " " + audioCodecs[audioIndex].getCodecName();
-					rtpmapParamValue += "/" + audioCodecs[audioIndex].getSampleRate() + "/1";
+					rtpmapParamValue += "/" + audioCodecs[audioIndex].getRtpClockRate() + "/1";
 
 					printLog("createInitialSdp", "Adding rtpmap for payload [" + payloadId + "] with value = ["
 							+ rtpmapParamValue + "].");
@@ -205,6 +273,12 @@ public class SdpUtils {
 
 					printLog("createInitialSdp", "No common audio media attributes.");
 				}
+
+				if (RtcpSession.enabled && RtcpSession.rtcpMux) {
+
+					initialDescriptor.getMediaDescriptor(SIPCodec.MEDIA_TYPE_AUDIO).addAttribute(
+							new AttributeField(RtcpSession.ATTRIBUTE_RTCP_MUX));
+				}
 			}
 
 			if (videoCodecsNumber > 0) {
@@ -291,6 +365,12 @@ public class SdpUtils {
 
 					printLog("createInitialSdp", "No common video media attributes.");
 				}
+
+				if (RtcpSession.enabled && RtcpSession.rtcpMux) {
+
+					initialDescriptor.getMediaDescriptor(SIPCodec.MEDIA_TYPE_VIDEO).addAttribute(
+							new AttributeField(RtcpSession.ATTRIBUTE_RTCP_MUX));
+				}
 			}
 		} catch (Exception exception) {
 
@@ -508,6 +588,11 @@ public class SdpUtils {
 
 								newLocalDescriptor.addAttribute(localAttribute);
 							}
+						} else if (RtcpSession.ATTRIBUTE_RTCP_MUX.equals(localAttribute.getAttributeName())
+								&& !remoteDescriptor.hasAttribute(RtcpSession.ATTRIBUTE_RTCP_MUX)) {
+
+							// Only answered when offered, RFC 5761
+							printLog("completeSdpNegotiation", "rtcp-mux not offered by the remote party.");
 						} else if (newLocalDescriptor.getAttribute(localAttribute.getAttributeName()) == null) {
 
 							newLocalDescriptor.addAttribute(localAttribute);
@@ -0,0 +1,100 @@
+package org.red5.sip.util;
+
+import org.red5.codecs.SIPCodecCN;
+
+/**
+ * Energy based voice activity detector for the decoded audio of a call.
+ * <p>
+ * The level of each block is compared to a noise floor, which follows quieter levels at once and rises slowly
+ * otherwise, so steady background noise is tracked while the pauses between syllables keep it down during speech.
+ * Speech starts {@link #threshold} dB above the floor and ends a few dB lower, then continues for
+ * {@link #hangover} ms so word endings are kept. Blocks quieter than {@link #silenceLevel} are never speech. Works on
+ * blocks of any length at any sample rate, no memory is allocated. Not thread safe.
+ */
+public class VoiceActivityDetector {
+	/** Whether the audio is classified, otherwise all of it is speech */
+	public static boolean enabled = true;
+
+	/** Level above the noise floor at which speech starts [dB] */
+	public static int threshold = 9;
+
+	/** Time speech lasts after the level fell [milliseconds] */
+	public static int hangover = 300;
+
+	/** Level below which audio is silent whatever the noise floor [-dBov] */
+	public static int silenceLevel = 55;
+
+	// Speech ends this much below the threshold [dB]
+	private static final float HYSTERESIS = 3;
+	// Noise floor rise while the level stays above it [dB per second]
+	private static final float FLOOR_RISE = 6;
+
+	private final int sampleRate;
+	// Levels [dBov], the floor starts at the level of the first block
+	private float noiseFloor = Float.NaN;
+	private float level = -SIPCodecCN.SILENCE_LEVEL;
+	// Speech still assumed after the level fell [microseconds]
+	private long hangoverLeft = 0;
+	private boolean voice = false;
+
+	public VoiceActivityDetector(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Classifies the next block of audio.
+	 *
+	 * @param pcm
+	 *            16 bit range samples
+	 * @return whether the block is speech
+	 */
+	public boolean process(float[] pcm, int length) {
+		if (length <= 0) {
+			return voice;
+		}
+		long duration = length * 1000000L / sampleRate;
+		level = -SIPCodecCN.noiseLevel(pcm, length);
+		if (level < noiseFloor || Float.isNaN(noiseFloor)) {
+			// Not below silence, the noise following digital silence would look like speech
+			noiseFloor = Math.max(level, -silenceLevel);
+		} else {
+			noiseFloor = Math.min(level, noiseFloor + FLOOR_RISE * duration / 1000000f);
+		}
+		boolean active = level > -silenceLevel && level > noiseFloor + (voice ? threshold - HYSTERESIS : threshold);
+		if (active) {
+			voice = true;
+			hangoverLeft = hangover * 1000L;
+		} else if (voice) {
+			hangoverLeft -= duration;
+			voice = hangoverLeft > 0;
+		}
+		return voice;
+	}
+
+	/**
+	 * @return whether the last block was speech
+	 */
+	public boolean isVoice() {
+		return voice;
+	}
+
+	/**
+	 * @return level of the last block [dBov]
+	 */
+	public float getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return estimated level of the background noise [dBov]
+	 */
+	public float getNoiseFloor() {
+		return noiseFloor;
+	}
+
+	@Override
+	public String toString() {
+		return (voice ? "voice" : "silence") + ", level " + Math.round(level) + " dBov, noise floor "
+				+ Math.round(noiseFloor) + " dBov";
+	}
+}